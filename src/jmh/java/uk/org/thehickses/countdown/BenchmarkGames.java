@@ -0,0 +1,54 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The games used as benchmark parameters. A game is specified either as its target number followed
+ * by its source numbers, separated by slashes (the games in countdown.feature are specified like
+ * this), or as "random-n", which denotes the nth game of a corpus of random games generated from a
+ * fixed seed, so that it is the same in every run.
+ */
+public class BenchmarkGames
+{
+    private static final long SEED = 1234;
+    private static final int CORPUS_SIZE = 10;
+    private static final String RANDOM_PREFIX = "random-";
+    private static final int[][] CORPUS = randomCorpus();
+
+    private static int[][] randomCorpus()
+    {
+        var rand = new Random(SEED);
+        return IntStream.range(0, CORPUS_SIZE)
+                .mapToObj(i ->
+                    {
+                        var target = Rules.STANDARD.selectTarget(rand);
+                        var numbers = Rules.STANDARD.selectSourceNumbers(rand, i % 5);
+                        return IntStream.concat(IntStream.of(target), IntStream.of(numbers))
+                                .toArray();
+                    })
+                .toArray(int[][]::new);
+    }
+
+    /**
+     * Gets the game with the specified specification, as the target number followed by the source
+     * numbers.
+     */
+    public static int[] game(String spec)
+    {
+        if (spec.startsWith(RANDOM_PREFIX))
+            return CORPUS[Integer.parseInt(spec.substring(RANDOM_PREFIX.length()))];
+        return Stream.of(spec.split("/"))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    public static Solver solver(String spec)
+    {
+        var game = game(spec);
+        return new Solver(game[0], IntStream.of(game)
+                .skip(1)
+                .toArray());
+    }
+}
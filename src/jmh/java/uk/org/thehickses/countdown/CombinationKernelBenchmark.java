@@ -0,0 +1,73 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of each {@link CombinationKernel}, combining each of a set of left operands with full
+ * runs of right operands, and of the SUBSETS strategy's calculation of all the values that can be
+ * made from some sets of source numbers, with each kernel. The vector kernel is only available if
+ * the vector profile is active as well as the benchmarks one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CombinationKernelBenchmark
+{
+    @Param({ CombinationKernel.SCALAR, CombinationKernel.VECTOR })
+    public String kernelName;
+
+    private CombinationKernel kernel;
+    private final int[] lefts = new Random(1).ints(256, 1, 2000)
+            .toArray();
+    private final int[] rights = new Random(2).ints(4096, 1, 2000)
+            .toArray();
+    private final int[][] results = new int[4][CombinationKernel.MAX_COUNT];
+    private final long[] valid = new long[4];
+    private final int[][] numberSets = { { 10, 9, 8, 7, 6, 5 }, { 50, 75, 25, 100, 5, 8 },
+            { 1, 2, 3, 4, 5, 6 }, { 25, 50, 75, 100, 3, 6 }, { 50, 4, 9, 6, 6, 1 } };
+
+    @Setup
+    public void setUp()
+    {
+        kernel = kernelName.equals(CombinationKernel.VECTOR) ? CombinationKernel.vector()
+                : CombinationKernel.scalar();
+    }
+
+    @Benchmark
+    public long combine()
+    {
+        var count = 0L;
+        for (var a : lefts)
+            for (int from = 0; from < rights.length; from += CombinationKernel.MAX_COUNT)
+            {
+                kernel.combine(a, rights, from, CombinationKernel.MAX_COUNT, results, valid);
+                count += Long.bitCount(valid[0]) + Long.bitCount(valid[3]);
+            }
+        return count;
+    }
+
+    @Benchmark
+    public long solveAll()
+    {
+        var count = 0L;
+        for (var numbers : numberSets)
+            count += new SubsetSearch(numbers, Cancellation.NONE, kernel).solveAll(100, 999)[0];
+        return count;
+    }
+}
@@ -0,0 +1,53 @@
+package uk.org.thehickses.countdown;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Strategy;
+
+/**
+ * Benchmarks of solving a game end to end, with each strategy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SolveBenchmark
+{
+    @Param({ "834/10/9/8/7/6/5", "378/50/7/4/3/2/1", "493/50/25/4/3/2/4", "803/50/4/9/6/6/1",
+            "827/25/8/5/8/1/2", "401/10/4/5/2/3/3", "954/50/75/25/100/5/8", "999/1/2/3/4/5/6",
+            "random-0", "random-1", "random-2", "random-3", "random-4", "random-5", "random-6",
+            "random-7", "random-8", "random-9" })
+    public String game;
+
+    @Param({ "DEEPENING", "PRIMITIVE", "SUBSETS", "STREAM" })
+    public Strategy strategy;
+
+    private Solver solver;
+
+    @Setup
+    public void setUp()
+    {
+        solver = BenchmarkGames.solver(game);
+    }
+
+    @Benchmark
+    public Expression solve()
+    {
+        return solver.solve(strategy);
+    }
+}
@@ -0,0 +1,65 @@
+package uk.org.thehickses.countdown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * Benchmarks of the parts of the STREAM strategy's search: generating the permutations of the
+ * source numbers, and enumerating the expressions that can be made from one permutation of all the
+ * source numbers. Both are run sequentially, and the results are counted rather than collected.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamSearchBenchmark
+{
+    @Param({ "834/10/9/8/7/6/5", "378/50/7/4/3/2/1", "493/50/25/4/3/2/4", "803/50/4/9/6/6/1",
+            "827/25/8/5/8/1/2", "401/10/4/5/2/3/3", "954/50/75/25/100/5/8", "999/1/2/3/4/5/6",
+            "random-0", "random-1", "random-2", "random-3", "random-4", "random-5", "random-6",
+            "random-7", "random-8", "random-9" })
+    public String game;
+
+    private Solver solver;
+    private Expression[] numbers;
+
+    @Setup
+    public void setUp()
+    {
+        solver = BenchmarkGames.solver(game);
+        numbers = IntStream.of(solver.getNumbers())
+                .mapToObj(n -> new Expression(n, solver.getTarget()))
+                .toArray(Expression[]::new);
+    }
+
+    @Benchmark
+    public long permute()
+    {
+        return solver.permute(Stream.of(numbers))
+                .count();
+    }
+
+    @Benchmark
+    public long expressions()
+    {
+        return solver.expressions(numbers)
+                .count();
+    }
+}
@@ -0,0 +1,314 @@
+package uk.org.thehickses.countdown.web;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+
+import uk.org.thehickses.countdown.Rules;
+
+/**
+ * A load generator for the web application. It starts the application on a random port, and sends
+ * a mix of games to the home page from a number of concurrent clients, each of which sends its next
+ * request as soon as it has the response to the previous one. After a warm-up period, whose
+ * requests are not measured, it measures the requests sent for a fixed period, and reports the
+ * throughput, the latency percentiles and the response statuses, for each kind of game and in
+ * total, followed by the application's statistics from /status.
+ *
+ * The options are specified as arguments of the form --name=value:
+ * <ul>
+ * <li>concurrency - the number of concurrent clients (default 8).</li>
+ * <li>duration - the length of the measured period, such as 30s or 2m (default 30s).</li>
+ * <li>warmup - the length of the warm-up period (default 10s).</li>
+ * <li>mix - the relative frequency of each kind of game (see {@link Kind}), such as
+ * random:6,repeated:3,worst:1 (the default).</li>
+ * <li>seed - the seed from which the games are chosen, so that runs can be repeated (default
+ * 1234).</li>
+ * </ul>
+ * Any other arguments are passed to the application, so its properties can be set in the same way,
+ * for instance --countdown.solver.max-concurrent-solves=2.
+ */
+public class LoadTest
+{
+    /**
+     * The kinds of game sent.
+     */
+    enum Kind
+    {
+        /**
+         * Games chosen at random according to the rules, so almost always solved afresh.
+         */
+        RANDOM
+        {
+            @Override
+            int[] game(Random rand)
+            {
+                var target = Rules.STANDARD.selectTarget(rand);
+                var numbers = Rules.STANDARD.selectSourceNumbers(rand, rand.nextInt(5));
+                return IntStream.concat(IntStream.of(target), IntStream.of(numbers))
+                        .toArray();
+            }
+        },
+        /**
+         * The games in countdown.feature, which are answered from the solution cache once they have
+         * been solved.
+         */
+        REPEATED
+        {
+            private final int[][] games = { { 834, 10, 9, 8, 7, 6, 5 }, { 378, 50, 7, 4, 3, 2, 1 },
+                    { 493, 50, 25, 4, 3, 2, 4 }, { 803, 50, 4, 9, 6, 6, 1 },
+                    { 827, 25, 8, 5, 8, 1, 2 }, { 401, 10, 4, 5, 2, 3, 3 },
+                    { 954, 50, 75, 25, 100, 5, 8 }, { 999, 1, 2, 3, 4, 5, 6 } };
+
+            @Override
+            int[] game(Random rand)
+            {
+                return games[rand.nextInt(games.length)];
+            }
+        },
+        /**
+         * Games like 999 1 2 3 4 5 6, whose source numbers are all small and whose target is from
+         * 990 to 999; they rarely have an exact solution, so the whole search must usually be done.
+         * There are enough of them that they are rarely answered from the cache.
+         */
+        WORST
+        {
+            @Override
+            int[] game(Random rand)
+            {
+                var numbers = Rules.STANDARD.selectSourceNumbers(rand, 0);
+                return IntStream.concat(IntStream.of(990 + rand.nextInt(10)),
+                        IntStream.of(numbers))
+                        .toArray();
+            }
+        };
+
+        abstract int[] game(Random rand);
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        var options = new TreeMap<String, String>();
+        var appArgs = new ArrayList<String>();
+        appArgs.add("--server.port=0");
+        // The application logs every solve at INFO level, which would distort the results.
+        appArgs.add("--logging.level.uk.org.thehickses.countdown=WARN");
+        for (var arg : args)
+        {
+            var option = Stream.of("concurrency", "duration", "warmup", "mix", "seed")
+                    .filter(name -> arg.startsWith("--" + name + "="))
+                    .findFirst();
+            if (option.isPresent())
+                options.put(option.get(), arg.substring(option.get()
+                        .length() + 3));
+            else
+                appArgs.add(arg);
+        }
+        var concurrency = Integer.parseInt(options.getOrDefault("concurrency", "8"));
+        var duration = DurationStyle.detectAndParse(options.getOrDefault("duration", "30s"));
+        var warmup = DurationStyle.detectAndParse(options.getOrDefault("warmup", "10s"));
+        var mix = parseMix(options.getOrDefault("mix", "random:6,repeated:3,worst:1"));
+        var seed = Long.parseLong(options.getOrDefault("seed", "1234"));
+
+        var context = SpringApplication.run(Application.class, appArgs.toArray(String[]::new));
+        try
+        {
+            var port = ((WebServerApplicationContext) context).getWebServer()
+                    .getPort();
+            var test = new LoadTest(URI.create("http://localhost:" + port), mix);
+            System.out.printf("Running %d clients for %s after %s of warm-up, mix %s%n",
+                    concurrency, DurationStyle.SIMPLE.print(duration, ChronoUnit.SECONDS),
+                    DurationStyle.SIMPLE.print(warmup, ChronoUnit.SECONDS), mix);
+            var results = test.run(concurrency, warmup, duration, seed);
+            report(results, duration);
+            System.out.println("Application status: " + test.get("/status")
+                    .body());
+        }
+        finally
+        {
+            context.close();
+        }
+    }
+
+    private static Map<Kind, Integer> parseMix(String spec)
+    {
+        var result = new EnumMap<Kind, Integer>(Kind.class);
+        for (var entry : spec.split(","))
+        {
+            var parts = entry.split(":");
+            result.put(Kind.valueOf(parts[0].trim()
+                    .toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return result;
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .build();
+    private final URI base;
+    // Each kind of game appears in this array as many times as its weight in the mix.
+    private final Kind[] mix;
+
+    private LoadTest(URI base, Map<Kind, Integer> mix)
+    {
+        this.base = base;
+        this.mix = mix.entrySet()
+                .stream()
+                .flatMap(e -> Stream.generate(e::getKey)
+                        .limit(e.getValue()))
+                .toArray(Kind[]::new);
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException
+    {
+        return client.send(HttpRequest.newBuilder(base.resolve(path))
+                .timeout(Duration.ofMinutes(1))
+                .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Runs the clients, and returns the results of the measured requests for each kind of game.
+     */
+    private Map<Kind, Results> run(int concurrency, Duration warmup, Duration duration, long seed)
+            throws Exception
+    {
+        var measureFrom = System.nanoTime() + warmup.toNanos();
+        var end = measureFrom + duration.toNanos();
+        ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try
+        {
+            var runs = new ArrayList<Future<Map<Kind, Results>>>();
+            for (int i = 0; i < concurrency; i++)
+            {
+                var rand = new Random(seed + i);
+                runs.add(clients.submit(() -> runClient(rand, measureFrom, end)));
+            }
+            var results = new EnumMap<Kind, Results>(Kind.class);
+            for (var run : runs)
+                run.get()
+                        .forEach((kind, r) -> results.merge(kind, r, Results::merge));
+            return results;
+        }
+        finally
+        {
+            clients.shutdownNow();
+        }
+    }
+
+    private Map<Kind, Results> runClient(Random rand, long measureFrom, long end)
+    {
+        var results = new EnumMap<Kind, Results>(Kind.class);
+        while (true)
+        {
+            var kind = mix[rand.nextInt(mix.length)];
+            var game = kind.game(rand);
+            var query = IntStream.range(0, game.length)
+                    .mapToObj(i -> "num" + i + "=" + game[i])
+                    .collect(Collectors.joining("&"));
+            var start = System.nanoTime();
+            if (start >= end)
+                return results;
+            int status;
+            try
+            {
+                status = get("/?" + query).statusCode();
+            }
+            catch (IOException ex)
+            {
+                status = 0;
+            }
+            catch (InterruptedException ex)
+            {
+                Thread.currentThread()
+                        .interrupt();
+                return results;
+            }
+            if (start >= measureFrom)
+                results.computeIfAbsent(kind, k -> new Results())
+                        .record(System.nanoTime() - start, status);
+        }
+    }
+
+    private static void report(Map<Kind, Results> results, Duration duration)
+    {
+        var seconds = duration.toNanos() / 1e9;
+        System.out.printf("%-9s %9s %9s %9s %9s %9s %9s  %s%n", "", "requests", "per sec",
+                "p50 ms", "p95 ms", "p99 ms", "max ms", "statuses (0 = I/O error)");
+        var total = new Results();
+        results.forEach((kind, r) ->
+            {
+                r.print(kind.name()
+                        .toLowerCase(), seconds);
+                total.merge(r);
+            });
+        total.print("all", seconds);
+    }
+
+    /**
+     * The latencies and statuses of the requests for one kind of game.
+     */
+    private static class Results
+    {
+        private long[] latencies = new long[1024];
+        private int count = 0;
+        private final Map<Integer, Integer> statuses = new TreeMap<>();
+
+        void record(long latencyNs, int status)
+        {
+            if (count == latencies.length)
+                latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latencyNs;
+            statuses.merge(status, 1, Integer::sum);
+        }
+
+        Results merge(Results other)
+        {
+            if (count + other.count > latencies.length)
+                latencies = Arrays.copyOf(latencies, count + other.count);
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            other.statuses.forEach((status, n) -> statuses.merge(status, n, Integer::sum));
+            return this;
+        }
+
+        void print(String name, double seconds)
+        {
+            var sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            System.out.printf("%-9s %9d %9.1f %9.1f %9.1f %9.1f %9.1f  %s%n", name, count,
+                    count / seconds, percentile(sorted, 50), percentile(sorted, 95),
+                    percentile(sorted, 99), percentile(sorted, 100), statuses);
+        }
+
+        /**
+         * Gets the specified percentile of the specified sorted latencies in milliseconds, by the
+         * nearest rank method.
+         */
+        private static double percentile(long[] sorted, int percent)
+        {
+            if (sorted.length == 0)
+                return 0;
+            var rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package uk.org.thehickses.countdown.web;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.springframework.boot.convert.DurationStyle;
+
+/**
+ * Measures how quickly each way of serving the web application starts, and how much memory it
+ * uses: the Spring Boot application ({@link Application}) and the {@link LightweightServer}. Each
+ * is started a number of times in a new JVM, with the same JVM options as this one, and for each
+ * run it reports the time from starting the JVM to receiving the response to a request to solve a
+ * game (the request that would have caused the instance to be started), and the resident set size
+ * of the JVM then and after a settling period, during which the lightweight server warms up, along
+ * with the number of classes loaded by then. The resident set size is read from /proc, so is only
+ * reported on Linux.
+ *
+ * The options are specified as arguments of the form --name=value:
+ * <ul>
+ * <li>runs - the number of times each server is started (default 3).</li>
+ * <li>settle - the settling period, such as 10s (the default).</li>
+ * </ul>
+ * Any other arguments are passed to the JVMs in which the servers run, so that the effect of JVM
+ * options can be measured, for instance -XX:TieredStopAtLevel=1 or -Xmx128m.
+ */
+public class StartupTest
+{
+    private static final String GAME = "/?num0=834&num1=10&num2=9&num3=8&num4=7&num5=6&num6=5";
+
+    /**
+     * The ways of serving the application.
+     */
+    enum Server
+    {
+        SPRING(Application.class), LIGHTWEIGHT(LightweightServer.class);
+
+        private final Class<?> mainClass;
+
+        private Server(Class<?> mainClass)
+        {
+            this.mainClass = mainClass;
+        }
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        var options = new TreeMap<String, String>();
+        var jvmArgs = new ArrayList<>(ManagementFactory.getRuntimeMXBean()
+                .getInputArguments());
+        for (var arg : args)
+        {
+            var option = Stream.of("runs", "settle")
+                    .filter(name -> arg.startsWith("--" + name + "="))
+                    .findFirst();
+            if (option.isPresent())
+                options.put(option.get(), arg.substring(option.get()
+                        .length() + 3));
+            else
+                jvmArgs.add(arg);
+        }
+        var runs = Integer.parseInt(options.getOrDefault("runs", "3"));
+        var settle = DurationStyle.detectAndParse(options.getOrDefault("settle", "10s"));
+
+        System.out.printf("Starting each server %d times, JVM options %s, settling for %s%n", runs,
+                jvmArgs, DurationStyle.SIMPLE.print(settle, ChronoUnit.SECONDS));
+        System.out.printf("%-12s %4s %18s %12s %18s %9s%n", "", "run", "first response ms",
+                "RSS MB", "settled RSS MB", "classes");
+        for (int run = 1; run <= runs; run++)
+            for (var server : Server.values())
+                new StartupTest(server, jvmArgs).run(run, settle);
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+    private final Server server;
+    private final List<String> jvmArgs;
+
+    private StartupTest(Server server, List<String> jvmArgs)
+    {
+        this.server = server;
+        this.jvmArgs = jvmArgs;
+    }
+
+    private void run(int run, Duration settle) throws Exception
+    {
+        var port = freePort();
+        var classLog = Files.createTempFile("classes", ".log");
+        var command = new ArrayList<String>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString());
+        command.addAll(jvmArgs);
+        command.add("-Xlog:class+load=info:file=" + classLog);
+        command.add("-classpath");
+        command.add(System.getProperty("java.class.path"));
+        command.add(server.mainClass.getName());
+        command.add("--server.port=" + port);
+        var start = System.nanoTime();
+        var process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        try
+        {
+            var uri = URI.create("http://localhost:" + port + GAME);
+            while (!respond(uri))
+            {
+                if (!process.isAlive())
+                    throw new IllegalStateException(server + " server exited");
+                Thread.sleep(10);
+            }
+            var firstResponse = (System.nanoTime() - start) / 1e6;
+            var rss = rssMegabytes(process);
+            Thread.sleep(settle.toMillis());
+            try (var classes = Files.lines(classLog))
+            {
+                System.out.printf("%-12s %4d %18.1f %12s %18s %9d%n", server.name()
+                        .toLowerCase(), run, firstResponse, rss, rssMegabytes(process),
+                        classes.count());
+            }
+        }
+        finally
+        {
+            process.destroy();
+            process.waitFor();
+            Files.delete(classLog);
+        }
+    }
+
+    private static int freePort() throws IOException
+    {
+        try (var socket = new ServerSocket(0))
+        {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Sends the request to solve the game, and returns whether a response was received.
+     */
+    private boolean respond(URI uri) throws InterruptedException
+    {
+        try
+        {
+            client.send(HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMinutes(1))
+                    .build(), HttpResponse.BodyHandlers.discarding());
+            return true;
+        }
+        catch (IOException ex)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Gets the resident set size of the specified process in megabytes, or "n/a" if it cannot be
+     * read.
+     */
+    private static String rssMegabytes(Process process)
+    {
+        var status = Paths.get("/proc", String.valueOf(process.pid()), "status");
+        try (var lines = Files.lines(status))
+        {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> String.format("%.1f", Long.parseLong(line.replaceAll("\\D", ""))
+                            / 1024.0))
+                    .findFirst()
+                    .orElse("n/a");
+        }
+        catch (IOException ex)
+        {
+            return "n/a";
+        }
+    }
+}
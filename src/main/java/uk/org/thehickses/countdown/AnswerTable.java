@@ -0,0 +1,310 @@
+package uk.org.thehickses.countdown;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * A precomputed table of the best solution for every game in a set of games, held in a file which
+ * is memory-mapped for reading.
+ *
+ * The file consists of a header; then the sets of source numbers covered by the table, each sorted
+ * into ascending order and packed into a long, in ascending order of the packed values; then, for
+ * each set of source numbers in turn, the solution for each target number from
+ * {@link #MIN_TARGET} to {@link #MAX_TARGET} inclusive. Each solution is an
+ * {@link ExpressionCode} relative to the sorted source numbers, stored in its least significant
+ * {@value #ENTRY_SIZE} bytes.
+ *
+ * The main method generates a table which covers every valid game, and writes it to the file
+ * specified as its argument, or {@value #DEFAULT_FILE} if no argument is specified.
+ */
+public class AnswerTable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(AnswerTable.class);
+
+    public static final String FILE_PROPERTY = "countdown.answers";
+    public static final String DEFAULT_FILE = "countdown-answers.bin";
+    public static final int MIN_TARGET = 100;
+    public static final int MAX_TARGET = 999;
+    private static final int TARGETS = MAX_TARGET - MIN_TARGET + 1;
+    private static final int MAGIC = 0x43445442;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 6;
+    private static final int NUMBER_COUNT = 6;
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            var file = Paths.get(args.length == 0 ? DEFAULT_FILE : args[0]);
+            LOG.info("Generating answer table in {}", file);
+            var start = System.currentTimeMillis();
+            generate(file, validNumberSets());
+            LOG.info("Completed in {} ms", System.currentTimeMillis() - start);
+            System.exit(0);
+        }
+        catch (Throwable ex)
+        {
+            LOG.error("Unexpected exception", ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets every valid set of source numbers, each sorted into ascending order.
+     */
+    public static List<int[]> validNumberSets()
+    {
+        var result = new ArrayList<int[]>();
+        var counts = new int[101];
+        addNumberSets(result, new int[NUMBER_COUNT], 0, 1, counts);
+        return result;
+    }
+
+    private static void addNumberSets(List<int[]> result, int[] numbers, int size, int from,
+            int[] counts)
+    {
+        if (size == numbers.length)
+        {
+            result.add(numbers.clone());
+            return;
+        }
+        for (int n = from; n <= 100; n++)
+        {
+            var maxCount = n <= 10 ? 2 : n % 25 == 0 ? 1 : 0;
+            if (counts[n] == maxCount)
+                continue;
+            counts[n]++;
+            numbers[size] = n;
+            addNumberSets(result, numbers, size + 1, n, counts);
+            counts[n]--;
+        }
+    }
+
+    /**
+     * Solves every game whose source numbers are one of the specified sets, and writes the table
+     * of solutions to the specified file. The table is written to a temporary file in the same
+     * directory, which replaces the specified file when it is complete, so that if generation is
+     * interrupted, any existing table is left as it was rather than truncated.
+     */
+    public static void generate(Path file, List<int[]> numberSets) throws IOException
+    {
+        var keys = numberSets.stream()
+                .peek(AnswerTable::validateNumbers)
+                .mapToLong(AnswerTable::key)
+                .sorted()
+                .distinct()
+                .toArray();
+        var directory = file.toAbsolutePath()
+                .getParent();
+        var temp = Files.createTempFile(directory, file.getFileName()
+                .toString(), ".tmp");
+        try
+        {
+            write(temp, keys);
+            try
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (AtomicMoveNotSupportedException ex)
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void validateNumbers(int[] numbers)
+    {
+        if (!isKeyable(numbers))
+            throw new IllegalArgumentException(String.format(
+                    "Answer table cannot include source numbers %s", Arrays.toString(numbers)));
+    }
+
+    private static void write(Path file, long[] keys) throws IOException
+    {
+        try (var channel = FileChannel.open(file, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            var header = ByteBuffer.allocate(HEADER_SIZE + keys.length * Long.BYTES)
+                    .putInt(MAGIC)
+                    .putInt(VERSION)
+                    .putInt(keys.length);
+            for (var key : keys)
+                header.putLong(key);
+            channel.write(header.flip(), 0);
+            var entriesStart = header.capacity();
+            IntStream.range(0, keys.length)
+                    .parallel()
+                    .forEach(i -> writeSolutions(channel,
+                            entriesStart + (long) i * TARGETS * ENTRY_SIZE, numbers(keys[i])));
+        }
+    }
+
+    private static void writeSolutions(FileChannel channel, long position, int[] numbers)
+    {
+        var search = new SubsetSearch(numbers, Cancellation.NONE);
+        var solutions = search.solveAll(MIN_TARGET, MAX_TARGET);
+        var buffer = ByteBuffer.allocate(TARGETS * ENTRY_SIZE);
+        for (var solution : solutions)
+        {
+            var code = solution == SubsetSearch.NO_SOLUTION ? ExpressionCode.NONE
+                    : search.encode(SubsetSearch.mask(solution), SubsetSearch.index(solution));
+            for (int b = ENTRY_SIZE - 1; b >= 0; b--)
+                buffer.put((byte) (code >>> (b * 8)));
+        }
+        try
+        {
+            channel.write(buffer.flip(), position);
+        }
+        catch (IOException ex)
+        {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets whether the specified source numbers can be packed into a key: there must be
+     * {@value #NUMBER_COUNT} of them, each allowed by the standard rules, so that each fits in the
+     * 7 bits it is given and no two sets of numbers have the same key.
+     */
+    private static boolean isKeyable(int[] numbers)
+    {
+        return numbers.length == NUMBER_COUNT && IntStream.of(numbers)
+                .allMatch(n -> n >= 1 && n <= 100);
+    }
+
+    private static long key(int[] numbers)
+    {
+        return IntStream.of(numbers)
+                .sorted()
+                .asLongStream()
+                .reduce(0, (key, n) -> key << 7 | n);
+    }
+
+    private static int[] numbers(long key)
+    {
+        var result = new int[NUMBER_COUNT];
+        for (int i = result.length - 1; i >= 0; i--, key >>>= 7)
+            result[i] = (int) (key & 0x7F);
+        return result;
+    }
+
+    /**
+     * Gets the table held in the file specified by the system property {@value #FILE_PROPERTY}, or
+     * if it is not set, in {@value #DEFAULT_FILE} in the current directory. The table is opened
+     * the first time this method is called; if the file does not exist or cannot be opened, the
+     * result is empty.
+     */
+    public static Optional<AnswerTable> shared()
+    {
+        return SharedTable.TABLE;
+    }
+
+    private static class SharedTable
+    {
+        private static final Optional<AnswerTable> TABLE = load();
+
+        private static Optional<AnswerTable> load()
+        {
+            var file = Paths.get(System.getProperty(FILE_PROPERTY, DEFAULT_FILE));
+            if (!Files.isRegularFile(file))
+            {
+                LOG.info("No answer table found at {}, games will be solved live", file);
+                return Optional.empty();
+            }
+            try
+            {
+                var table = open(file);
+                LOG.info("Opened answer table {}", file);
+                return Optional.of(table);
+            }
+            catch (IOException | RuntimeException ex)
+            {
+                LOG.error("Unable to open answer table {}, games will be solved live", file, ex);
+                return Optional.empty();
+            }
+        }
+    }
+
+    public static AnswerTable open(Path file) throws IOException
+    {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return new AnswerTable(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private final long[] keys;
+    private final MappedByteBuffer buffer;
+    private final int entriesStart;
+
+    private AnswerTable(MappedByteBuffer buffer)
+    {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION)
+            throw new IllegalArgumentException("Not an answer table, or an unsupported version");
+        this.buffer = buffer;
+        var keyCount = buffer.getInt(8);
+        if (keyCount < 0 || HEADER_SIZE + (long) keyCount * Long.BYTES > buffer.capacity())
+            throw new IllegalArgumentException("Answer table is truncated");
+        keys = new long[keyCount];
+        entriesStart = HEADER_SIZE + keys.length * Long.BYTES;
+        Arrays.setAll(keys, i -> buffer.getLong(HEADER_SIZE + i * Long.BYTES));
+        if (buffer.capacity() != entriesStart + (long) keys.length * TARGETS * ENTRY_SIZE)
+            throw new IllegalArgumentException("Answer table is truncated");
+    }
+
+    /**
+     * Gets whether the table includes the game with the specified target and source numbers.
+     */
+    public boolean covers(int target, int[] numbers)
+    {
+        return target >= MIN_TARGET && target <= MAX_TARGET && isKeyable(numbers)
+                && Arrays.binarySearch(keys, key(numbers)) >= 0;
+    }
+
+    /**
+     * Gets the best solution for the game with the specified target and source numbers, or null if
+     * there is no solution.
+     *
+     * @throws IllegalArgumentException
+     *             if the table does not include the game.
+     */
+    public Expression lookup(int target, int[] numbers)
+    {
+        if (!covers(target, numbers))
+            throw new IllegalArgumentException("Game is not included in the answer table");
+        var key = key(numbers);
+        var position = entriesStart
+                + ((long) Arrays.binarySearch(keys, key) * TARGETS + target - MIN_TARGET)
+                        * ENTRY_SIZE;
+        var code = 0L;
+        for (int b = 0; b < ENTRY_SIZE; b++)
+            code = code << 8 | (buffer.get((int) position + b) & 0xFF);
+        return ExpressionCode.decode(code, numbers(key), target);
+    }
+}
@@ -0,0 +1,203 @@
+package uk.org.thehickses.countdown;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * Solves batches of games, several at a time, writing the result of each game as a line of JSON as
+ * soon as it is available.
+ *
+ * Each game is specified as a line of text containing the arguments that would be passed to
+ * {@link Solver#main(String[])} to solve it, separated by whitespace and/or commas; blank lines
+ * are ignored. The games are solved in a fork-join pool owned by the batch solver, which is also
+ * used by the parallel parts of each search. Games are read from the input only as fast as they
+ * are solved, so a batch can be larger than will fit in memory.
+ *
+ * The result of each game is a JSON object containing the index of the game in the batch (from 0)
+ * and either the target number, source numbers and solution (which is null if there is none), or
+ * an error message if the game is invalid.
+ */
+public class BatchSolver
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BatchSolver.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    /**
+     * The order in which the results of a batch are written.
+     */
+    public static enum Order
+    {
+        /**
+         * The order of the games in the batch. The result of a game is written only when the
+         * results of all the games before it have been written.
+         */
+        INPUT,
+        /**
+         * The order in which the games are solved.
+         */
+        COMPLETION
+    }
+
+    private final Rules rules;
+    private final ForkJoinPool pool;
+    // The maximum number of games being solved, or solved and waiting to be written.
+    private final int window;
+
+    /**
+     * Creates a batch solver which solves games that are valid according to the specified rules,
+     * using the specified number of threads.
+     */
+    public BatchSolver(Rules rules, int parallelism)
+    {
+        this.rules = rules;
+        pool = new ForkJoinPool(parallelism);
+        window = parallelism * 2;
+    }
+
+    /**
+     * Solves the specified games using the specified function, and passes the result of each to
+     * the specified output, in the specified order. The output is never called by more than one
+     * thread at a time. If solving a game throws a runtime exception, the result of that game is
+     * an error; but if the output throws an exception, or solving a game throws an error, no more
+     * games are solved, and the exception is rethrown.
+     */
+    public void solve(Stream<String> games, Order order, Function<Solver, Expression> solve,
+            Consumer<String> output)
+    {
+        var failure = new AtomicReference<RuntimeException>();
+        Consumer<String> synchronisedOutput = result ->
+            {
+                synchronized (output)
+                {
+                    output.accept(result);
+                }
+            };
+        if (order == Order.INPUT)
+            solveInInputOrder(games, solve, synchronisedOutput, failure);
+        else
+            solveInCompletionOrder(games, solve, synchronisedOutput, failure);
+        if (failure.get() != null)
+            throw failure.get();
+    }
+
+    private void solveInInputOrder(Stream<String> games, Function<Solver, Expression> solve,
+            Consumer<String> output, AtomicReference<RuntimeException> failure)
+    {
+        var pending = new ArrayDeque<CompletableFuture<String>>();
+        var index = 0;
+        for (var it = games.filter(g -> !g.isBlank())
+                .iterator(); it.hasNext() && failure.get() == null;)
+        {
+            if (pending.size() == window)
+                write(pending.remove()
+                        .join(), output, failure);
+            var i = index++;
+            var game = it.next();
+            pending.add(CompletableFuture.supplyAsync(() -> result(i, game, solve), pool));
+            while (!pending.isEmpty() && pending.peek()
+                    .isDone() && failure.get() == null)
+                write(pending.remove()
+                        .join(), output, failure);
+        }
+        while (!pending.isEmpty() && failure.get() == null)
+            write(pending.remove()
+                    .join(), output, failure);
+        pending.forEach(result -> result.cancel(false));
+    }
+
+    private void solveInCompletionOrder(Stream<String> games, Function<Solver, Expression> solve,
+            Consumer<String> output, AtomicReference<RuntimeException> failure)
+    {
+        var inProgress = new Semaphore(window);
+        var index = 0;
+        for (var it = games.filter(g -> !g.isBlank())
+                .iterator(); it.hasNext() && failure.get() == null;)
+        {
+            inProgress.acquireUninterruptibly();
+            var i = index++;
+            var game = it.next();
+            CompletableFuture.supplyAsync(() -> result(i, game, solve), pool)
+                    .thenAccept(result -> write(result, output, failure))
+                    .whenComplete((v, ex) ->
+                        {
+                            if (ex != null)
+                                failure.compareAndSet(null, new CompletionException(ex));
+                            inProgress.release();
+                        });
+        }
+        inProgress.acquireUninterruptibly(window);
+    }
+
+    private static void write(String result, Consumer<String> output,
+            AtomicReference<RuntimeException> failure)
+    {
+        if (failure.get() != null)
+            return;
+        try
+        {
+            output.accept(result);
+        }
+        catch (RuntimeException ex)
+        {
+            failure.compareAndSet(null, ex);
+        }
+    }
+
+    private String result(int index, String game, Function<Solver, Expression> solve)
+    {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("index", index);
+        try
+        {
+            var solver = Solver.instance(rules, game.trim()
+                    .split("[\\s,]+"));
+            var solution = solve.apply(solver);
+            result.put("target", solver.getTarget());
+            result.put("numbers", solver.getNumbers());
+            result.put("solution", solution == null ? null : solution.toString());
+            if (solution != null)
+                result.put("value", solution.value);
+        }
+        catch (RuntimeException ex)
+        {
+            // Games which are invalid, or which are rejected or time out because the solver is
+            // busy, are expected.
+            if (!(ex instanceof IllegalArgumentException || ex instanceof RejectedExecutionException
+                    || ex instanceof CancellationException))
+                LOG.error("Unable to solve game {}: {}", index, game, ex);
+            result.put("game", game);
+            result.put("error", ex.getMessage());
+        }
+        try
+        {
+            return MAPPER.writeValueAsString(result);
+        }
+        catch (JsonProcessingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public void shutdown()
+    {
+        pool.shutdownNow();
+    }
+}
@@ -0,0 +1,34 @@
+package uk.org.thehickses.countdown;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * The best solution offered so far by any of the parallel branches of a search, ranked in the same
+ * way as by {@link Solver#evaluator()}. Where two solutions are ranked the same, the one offered
+ * first is kept, which is not necessarily the one that comes first in the search order.
+ */
+class BestSoFar implements Consumer<Expression>
+{
+    private static final BinaryOperator<Expression> EVALUATOR = Solver.evaluator();
+
+    private final AtomicReference<Expression> best = new AtomicReference<>();
+
+    @Override
+    public void accept(Expression candidate)
+    {
+        // Most candidates are no better than the best so far, so are rejected without an update.
+        var current = best.get();
+        if (current != null && EVALUATOR.apply(current, candidate) == current)
+            return;
+        best.accumulateAndGet(candidate, (c, e) -> c == null ? e : EVALUATOR.apply(c, e));
+    }
+
+    Expression get()
+    {
+        return best.get();
+    }
+}
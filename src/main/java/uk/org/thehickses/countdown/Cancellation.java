@@ -0,0 +1,78 @@
+package uk.org.thehickses.countdown;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A means of cancelling a search, which is checked periodically by the search, including by all of
+ * its parallel branches. A search is cancelled either explicitly, or when its deadline (if any)
+ * passes.
+ */
+public class Cancellation
+{
+    /**
+     * A cancellation which is never cancelled: it is shared by all the searches that cannot be
+     * cancelled, so cancelling it is ignored.
+     */
+    public static final Cancellation NONE = new Cancellation(Long.MAX_VALUE)
+    {
+        @Override
+        public void cancel()
+        {
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return false;
+        }
+    };
+
+    public static Cancellation withDeadline(Duration timeout)
+    {
+        return new Cancellation(System.nanoTime() + timeout.toNanos());
+    }
+
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+    public Cancellation()
+    {
+        this(Long.MAX_VALUE);
+    }
+
+    private Cancellation(long deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled || (deadline != Long.MAX_VALUE && System.nanoTime() - deadline >= 0);
+    }
+
+    /**
+     * Gets the time remaining until the deadline, or null if there is no deadline.
+     */
+    public Duration getRemaining()
+    {
+        if (deadline == Long.MAX_VALUE)
+            return null;
+        return Duration.ofNanos(Math.max(0, deadline - System.nanoTime()));
+    }
+
+    /**
+     * @throws CancellationException
+     *             if the search has been cancelled.
+     */
+    public void check()
+    {
+        if (isCancelled())
+            throw new CancellationException(cancelled ? "Search cancelled" : "Deadline passed");
+    }
+}
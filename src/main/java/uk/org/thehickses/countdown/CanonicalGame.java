@@ -0,0 +1,48 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+
+/**
+ * Identifies a game by its target number and the multiset of its source numbers, so that games
+ * which differ only in the order of their source numbers are equal.
+ */
+public final class CanonicalGame
+{
+    public final int target;
+    private final int[] numbers;
+
+    public CanonicalGame(int target, int[] numbers)
+    {
+        this.target = target;
+        this.numbers = numbers.clone();
+        Arrays.sort(this.numbers);
+    }
+
+    public int[] getNumbers()
+    {
+        return numbers.clone();
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof CanonicalGame))
+            return false;
+        var other = (CanonicalGame) obj;
+        return target == other.target && Arrays.equals(numbers, other.numbers);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * target + Arrays.hashCode(numbers);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d %s", target, Arrays.toString(numbers));
+    }
+}
@@ -0,0 +1,158 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Combines a left operand with a run of right operands by each of the operators, computing the
+ * value of each combination and whether it passes the pruning rules that apply to both operands
+ * ({@link Solver#canAdd(int, int)} and the others). The rules that apply to the left operand alone
+ * are left to the caller, as they are the same for all the right operands. The operands must be
+ * positive, as all the values made from the source numbers are.
+ *
+ * There are two implementations, which give exactly the same results: a scalar one, which combines
+ * one pair of operands at a time, and one which uses the Vector API to combine a number of pairs
+ * at once in SIMD lanes. The Vector API is in an incubator module in Java 17, so the vector
+ * implementation is only built by the vector Maven profile, and can only be used if the JVM is
+ * started with {@code --add-modules jdk.incubator.vector}; it is loaded by name, so that this
+ * interface does not depend on it. The scalar implementation is used unless the vector one is
+ * selected.
+ */
+interface CombinationKernel
+{
+    /**
+     * The system property which specifies the implementation to use, {@value #SCALAR} or
+     * {@value #VECTOR}. If it is not set, the scalar implementation is used; if the vector one is
+     * specified but is not available, the scalar one is used instead.
+     */
+    String KERNEL_PROPERTY = "countdown.kernel";
+    String SCALAR = "scalar";
+    String VECTOR = "vector";
+    String VECTOR_CLASS = "uk.org.thehickses.countdown.VectorCombinationKernel";
+
+    /**
+     * The greatest number of right operands that can be combined in one call.
+     */
+    int MAX_COUNT = Long.SIZE;
+
+    /**
+     * Combines the left operand a with each of the count right operands in b starting at index
+     * from, by each operator. For each operator, the values of the combinations are written to
+     * results[operator.ordinal()], which must have at least {@link #MAX_COUNT} elements, and bit j
+     * of valid[operator.ordinal()] is set if the combination with b[from + j] passes the pruning
+     * rules. The values of the combinations which do not pass the rules are undefined.
+     */
+    void combine(int a, int[] b, int from, int count, int[][] results, long[] valid);
+
+    /**
+     * Gets the implementation specified by the {@value #KERNEL_PROPERTY} system property, or the
+     * scalar one if it is not set.
+     */
+    static CombinationKernel get()
+    {
+        return Selected.KERNEL;
+    }
+
+    /**
+     * Gets whether the vector implementation is available: it has been built, and the Vector API
+     * module has been added to the JVM.
+     */
+    static boolean isVectorAvailable()
+    {
+        return ModuleLayer.boot()
+                .findModule("jdk.incubator.vector")
+                .isPresent()
+                && CombinationKernel.class.getClassLoader()
+                        .getResource(VECTOR_CLASS.replace('.', '/') + ".class") != null;
+    }
+
+    /**
+     * Gets the vector implementation; it must be available.
+     */
+    static CombinationKernel vector()
+    {
+        try
+        {
+            return (CombinationKernel) Class.forName(VECTOR_CLASS)
+                    .getDeclaredConstructor()
+                    .newInstance();
+        }
+        catch (ReflectiveOperationException ex)
+        {
+            throw new IllegalStateException("The vector combination kernel is not available", ex);
+        }
+    }
+
+    static CombinationKernel scalar()
+    {
+        return new ScalarKernel();
+    }
+
+    class Selected
+    {
+        private static final Logger LOG = LoggerFactory.getLogger(CombinationKernel.class);
+        private static final CombinationKernel KERNEL = select();
+
+        private static CombinationKernel select()
+        {
+            var property = System.getProperty(KERNEL_PROPERTY, SCALAR);
+            if (property.equals(SCALAR))
+                return scalar();
+            if (!property.equals(VECTOR))
+                throw new IllegalArgumentException(
+                        "Invalid value for " + KERNEL_PROPERTY + ": " + property);
+            if (!isVectorAvailable())
+            {
+                LOG.info("The vector kernel is not available, so the scalar kernel will be used");
+                return scalar();
+            }
+            return vector();
+        }
+    }
+
+    class ScalarKernel implements CombinationKernel
+    {
+        private static final int ADD = Solver.Operator.ADD.ordinal();
+        private static final int SUBTRACT = Solver.Operator.SUBTRACT.ordinal();
+        private static final int MULTIPLY = Solver.Operator.MULTIPLY.ordinal();
+        private static final int DIVIDE = Solver.Operator.DIVIDE.ordinal();
+
+        @Override
+        public void combine(int a, int[] b, int from, int count, int[][] results, long[] valid)
+        {
+            Arrays.fill(valid, 0);
+            for (int j = 0; j < count; j++)
+                combine(a, b[from + j], j, results, valid);
+        }
+
+        /**
+         * Combines the left operand a with the right operand b, which is the one for bit j.
+         */
+        static void combine(int a, int b, int j, int[][] results, long[] valid)
+        {
+            var bit = 1L << j;
+            if (Solver.canAdd(a, b))
+            {
+                results[ADD][j] = a + b;
+                valid[ADD] |= bit;
+            }
+            if (Solver.canSubtract(a, b))
+            {
+                results[SUBTRACT][j] = a - b;
+                valid[SUBTRACT] |= bit;
+            }
+            if (Solver.canMultiply(a, b))
+            {
+                results[MULTIPLY][j] = a * b;
+                valid[MULTIPLY] |= bit;
+            }
+            if (Solver.canDivide(a, b))
+            {
+                results[DIVIDE][j] = a / b;
+                valid[DIVIDE] |= bit;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package uk.org.thehickses.countdown;
+
+import java.util.ArrayDeque;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Operator;
+
+/**
+ * A compact encoding of an expression as a long, relative to an array of source numbers. The
+ * expression is encoded in postfix order as a sequence of 4-bit tokens, starting with the least
+ * significant bits: a token less than 8 denotes the source number with that index, a token from 8
+ * to 11 denotes the operator whose ordinal is the token minus 8, and the token 15 marks the end of
+ * the expression. An expression can therefore use up to 8 source numbers. A code of 0 (NONE)
+ * denotes that there is no expression.
+ */
+final class ExpressionCode
+{
+    static final long NONE = 0;
+    static final int MAX_NUMBERS = 8;
+    private static final int OPERATOR_BASE = 8;
+    private static final int END = 15;
+    private static final Operator[] OPERATORS = Operator.values();
+
+    private long code = 0;
+    private int length = 0;
+
+    ExpressionCode number(int index)
+    {
+        return add(index);
+    }
+
+    ExpressionCode operator(int ordinal)
+    {
+        return add(OPERATOR_BASE + ordinal);
+    }
+
+    long toCode()
+    {
+        return add(END).code;
+    }
+
+    private ExpressionCode add(int token)
+    {
+        code |= (long) token << (length++ * 4);
+        return this;
+    }
+
+    static Expression decode(long code, int[] numbers, int target)
+    {
+        if (code == NONE)
+            return null;
+        var stack = new ArrayDeque<Expression>();
+        for (var token = (int) (code & 0xF); token != END; token = (int) ((code >>>= 4) & 0xF))
+        {
+            if (token < OPERATOR_BASE)
+                stack.push(new Expression(numbers[token], target));
+            else
+            {
+                var right = stack.pop();
+                var left = stack.pop();
+                stack.push(
+                        new Expression(left, OPERATORS[token - OPERATOR_BASE], right, target));
+            }
+        }
+        return stack.pop();
+    }
+}
@@ -0,0 +1,117 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * The values that can be made from the source numbers of a game which is being entered one number
+ * at a time, so that by the time the target number is known, most of the work of solving the game
+ * has been done.
+ *
+ * The values are calculated by a {@link SubsetSearch}. When the source numbers are updated, the
+ * values of the subsets of the numbers they have in common with the previous ones, from the first
+ * up to the first that differs, are kept, and the remaining numbers are added in turn, so that
+ * only the subsets which include each new number are calculated. The values do not depend on the
+ * target number, so solving a game whose source numbers have all been added just looks up the
+ * best solution among them, which is ranked the same as that found by the other strategies.
+ *
+ * The storage retained is limited by a {@link MemoryBudget}; if it would be exceeded, or the
+ * calculation is cancelled, the values are discarded. The solver can be used by more than one
+ * thread, but only one at a time updates or solves.
+ */
+public class IncrementalSolver
+{
+    private final long memoryBudget;
+    private MemoryBudget budget;
+    private SubsetSearch search;
+    // The storage retained when the solver was last updated or reset, which can be read without
+    // waiting for an update in progress.
+    private volatile long retainedBytes;
+
+    /**
+     * Creates a solver which may retain the specified number of bytes of storage.
+     */
+    public IncrementalSolver(long memoryBudget)
+    {
+        this.memoryBudget = memoryBudget;
+        reset();
+    }
+
+    private void reset()
+    {
+        budget = new MemoryBudget(memoryBudget);
+        search = new SubsetSearch(new int[0], Cancellation.NONE, budget);
+        retainedBytes = budget.getRetained();
+    }
+
+    public void update(int[] numbers)
+    {
+        update(numbers, Cancellation.NONE);
+    }
+
+    /**
+     * Updates the source numbers, and calculates the values that can be made from them. The
+     * calculation can be cancelled by the specified cancellation.
+     *
+     * @throws MemoryBudget.ExceededException
+     *             if calculating them would exceed the memory budget; the values are discarded.
+     * @throws CancellationException
+     *             if the calculation is cancelled; the values are discarded.
+     */
+    public synchronized void update(int[] numbers, Cancellation cancellation)
+    {
+        search.setCancellation(cancellation);
+        var current = search.getNumbers();
+        var common = Arrays.mismatch(current, numbers);
+        if (common < 0)
+            return;
+        try
+        {
+            if (common < current.length)
+            {
+                reset();
+                search.setCancellation(cancellation);
+                common = 0;
+            }
+            for (int i = common; i < numbers.length; i++)
+            {
+                search = search.withNumber(numbers[i]);
+                search.evaluateAll();
+            }
+            retainedBytes = budget.getRetained();
+        }
+        catch (RuntimeException ex)
+        {
+            reset();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the best solution for the specified target number using the specified source numbers,
+     * updating the source numbers first if necessary (see {@link #update(int[], Cancellation)}).
+     * The search can be cancelled by the specified cancellation.
+     */
+    public synchronized Expression solve(int target, int[] numbers, Cancellation cancellation)
+    {
+        update(numbers, cancellation);
+        return search.solve(target);
+    }
+
+    public synchronized int[] getNumbers()
+    {
+        return search.getNumbers()
+                .clone();
+    }
+
+    /**
+     * Gets the number of bytes of storage retained, as of the end of the last update. It does not
+     * wait for an update in progress.
+     */
+    public long getRetainedBytes()
+    {
+        return retainedBytes;
+    }
+}
@@ -0,0 +1,137 @@
+package uk.org.thehickses.countdown;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The {@link IncrementalSolver}s of the sessions of the users who are entering games, keyed by
+ * session ID. So that the memory they retain is bounded, there are at most a fixed number of them,
+ * each with the same memory budget, and when that number would be exceeded the least recently used
+ * one is discarded; one which has not been used for longer than the idle timeout is discarded too.
+ */
+public class IncrementalSolvers
+{
+    private final int capacity;
+    private final long idleTimeoutNs;
+    private final long memoryBudget;
+    private final Map<String, Entry> solvers = new LinkedHashMap<>(16, 0.75f, true);
+    private long evictions = 0;
+    private long expiries = 0;
+
+    /**
+     * Creates a store which holds at most the specified number of solvers, each of which may
+     * retain the specified number of bytes of storage, and each of which is discarded when it has
+     * not been used for the specified time.
+     */
+    public IncrementalSolvers(int capacity, Duration idleTimeout, long memoryBudget)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        this.capacity = capacity;
+        this.idleTimeoutNs = idleTimeout.toNanos();
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Gets the solver of the specified session, creating it if there is none.
+     */
+    public synchronized IncrementalSolver get(String sessionId)
+    {
+        expire();
+        var entry = solvers.computeIfAbsent(sessionId,
+                id -> new Entry(new IncrementalSolver(memoryBudget)));
+        entry.lastUsed = System.nanoTime();
+        if (solvers.size() > capacity)
+        {
+            var eldest = solvers.keySet()
+                    .iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+        return entry.solver;
+    }
+
+    /**
+     * Gets the solver of the specified session, if there is one.
+     */
+    public synchronized Optional<IncrementalSolver> find(String sessionId)
+    {
+        expire();
+        var entry = solvers.get(sessionId);
+        if (entry == null)
+            return Optional.empty();
+        entry.lastUsed = System.nanoTime();
+        return Optional.of(entry.solver);
+    }
+
+    /**
+     * Discards the solvers which have not been used for longer than the idle timeout. They are
+     * held in order of last use, so these are the first ones.
+     */
+    private void expire()
+    {
+        var now = System.nanoTime();
+        for (var it = solvers.values()
+                .iterator(); it.hasNext();)
+        {
+            if (now - it.next().lastUsed <= idleTimeoutNs)
+                return;
+            it.remove();
+            expiries++;
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized int getSize()
+    {
+        expire();
+        return solvers.size();
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    public synchronized long getExpiries()
+    {
+        return expiries;
+    }
+
+    /**
+     * Gets the number of bytes of storage retained by all the solvers, as of the end of their last
+     * updates; it does not wait for any solver that is busy calculating values.
+     */
+    public long getRetainedBytes()
+    {
+        List<Entry> entries;
+        synchronized (this)
+        {
+            expire();
+            entries = new ArrayList<>(solvers.values());
+        }
+        return entries.stream()
+                .mapToLong(e -> e.solver.getRetainedBytes())
+                .sum();
+    }
+
+    private static class Entry
+    {
+        final IncrementalSolver solver;
+        long lastUsed;
+
+        Entry(IncrementalSolver solver)
+        {
+            this.solver = solver;
+        }
+    }
+}
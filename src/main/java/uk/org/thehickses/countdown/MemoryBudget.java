@@ -0,0 +1,105 @@
+package uk.org.thehickses.countdown;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A limit on the memory that a search may retain, which is checked by the search, including by all
+ * of its parallel branches, whenever it allocates or grows its storage for candidate expressions.
+ * The budget also records the peak size of the storage retained, so that it can be reported.
+ *
+ * Only the storage which grows with the number of expressions is counted: the parallel arrays in
+ * which the PRIMITIVE, DEEPENING, SUBSETS and BACKWARD searches hold the values that can be made,
+ * with back-references from each expression to its operands. The few fixed-size arrays, and the
+ * {@link Solver.Expression} objects built for the best solutions found, are not counted. When an
+ * array is grown, both it and the copy are counted until the copy is complete.
+ */
+public class MemoryBudget
+{
+    /**
+     * A budget which is never exceeded, and which does not record the size retained.
+     */
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE)
+    {
+        @Override
+        void reserve(long bytes)
+        {
+        }
+
+        @Override
+        void release(long bytes)
+        {
+        }
+    };
+
+    private final long limit;
+    private final AtomicLong retained = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+
+    /**
+     * Creates a budget which allows the specified number of bytes to be retained.
+     */
+    public MemoryBudget(long limit)
+    {
+        this.limit = limit;
+    }
+
+    public long getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Gets the number of bytes retained now.
+     */
+    public long getRetained()
+    {
+        return retained.get();
+    }
+
+    /**
+     * Gets the greatest number of bytes retained at any one time.
+     */
+    public long getPeak()
+    {
+        return peak.get();
+    }
+
+    /**
+     * Records that the specified number of bytes are about to be allocated.
+     *
+     * @throws ExceededException
+     *             if retaining them would exceed the budget; they are not recorded.
+     */
+    void reserve(long bytes)
+    {
+        var total = retained.addAndGet(bytes);
+        if (total > limit)
+        {
+            retained.addAndGet(-bytes);
+            throw new ExceededException(String.format(
+                    "Memory budget of %d bytes exceeded: %d bytes needed", limit, total));
+        }
+        peak.accumulateAndGet(total, Math::max);
+    }
+
+    /**
+     * Records that the specified number of bytes are no longer retained.
+     */
+    void release(long bytes)
+    {
+        retained.addAndGet(-bytes);
+    }
+
+    /**
+     * Thrown when a search would exceed its memory budget.
+     */
+    public static class ExceededException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ExceededException(String message)
+        {
+            super(message);
+        }
+    }
+}
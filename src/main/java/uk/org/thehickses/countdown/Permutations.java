@@ -0,0 +1,280 @@
+package uk.org.thehickses.countdown;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * The permutations of every length of a set of values, in depth-first order: each permutation is
+ * followed by all the longer permutations that start with it. Where the values include duplicates,
+ * a permutation which would be the same as an earlier one is skipped; this is done by only
+ * selecting a value for each position if no earlier unused value is equal to it.
+ *
+ * The permutations are generated lazily, by spliterators each of which covers the permutations
+ * that start with a fixed prefix followed by one of a range of indices. A spliterator splits at
+ * the shallowest position at which it has more than one choice left, keeping the later half of the
+ * choices and giving away the earlier half together with the permutation in progress, so a
+ * parallel stream is spread across its workers whatever the number of values, without the
+ * permutations ever being held in memory. The work items (see {@link #workItems()}) are in the
+ * same order, each permutation having one work item for each point at which it can be split into
+ * two (or one, if it has one value).
+ */
+class Permutations
+{
+    private final int[] values;
+    // The number of permutations that start with a given permutation of each length, including
+    // itself, if there are no duplicates; the last element is for the length of the values.
+    private final long[] subtreeSizes;
+
+    Permutations(int[] values)
+    {
+        this.values = values.clone();
+        var n = values.length;
+        subtreeSizes = new long[n + 1];
+        subtreeSizes[n] = 1;
+        for (int length = n - 1; length >= 0; length--)
+            subtreeSizes[length] = 1 + (n - length) * subtreeSizes[length + 1];
+    }
+
+    /**
+     * Determines whether a permutation comes after the one made by swapping two adjacent parts of
+     * it: the positions from start (inclusive) to split (exclusive), and from split to end
+     * (exclusive). The permutation is specified by the value and the index of the value at each
+     * position; it, and so the swapped permutation, must be one that is not skipped because of
+     * duplicates.
+     *
+     * The two permutations are the same up to the first position at which their values differ,
+     * and are ordered by the indices that they have at that position. The index in the swapped
+     * permutation is that of the first unused value equal to its value, which is where that value
+     * next appears in this permutation. If there is no position at which the values differ, the
+     * permutations are the same, and the result is false.
+     */
+    static boolean swappedComesFirst(int[] values, int[] indices, int start, int split, int end)
+    {
+        var rightLength = end - split;
+        for (int k = start; k < end; k++)
+        {
+            var swapped = values[k - start < rightLength ? split + k - start : k - rightLength];
+            if (values[k] == swapped)
+                continue;
+            var next = k + 1;
+            while (values[next] != swapped)
+                next++;
+            return indices[next] < indices[k];
+        }
+        return false;
+    }
+
+    /**
+     * Gets a spliterator over the permutations, each of which is passed to the specified function
+     * as an array of indices, and replaced by the result.
+     */
+    <T> Spliterator<T> permutations(Function<int[], T> mapper)
+    {
+        return new PrefixSpliterator<T>((indices, action) -> action.accept(mapper.apply(indices)));
+    }
+
+    /**
+     * A work item: a permutation, as an array of indices, and the point at which it is split into
+     * a left and a right part. The split point is the number of values in the left part; it is 0
+     * if the permutation has only one value, and so is not split.
+     */
+    static class WorkItem
+    {
+        final int[] indices;
+        final int split;
+
+        WorkItem(int[] indices, int split)
+        {
+            this.indices = indices;
+            this.split = split;
+        }
+    }
+
+    /**
+     * Gets a spliterator over the work items.
+     */
+    Spliterator<WorkItem> workItems()
+    {
+        return new PrefixSpliterator<WorkItem>((indices, action) ->
+            {
+                if (indices.length == 1)
+                    action.accept(new WorkItem(indices, 0));
+                for (int split = 1; split < indices.length; split++)
+                    action.accept(new WorkItem(indices, split));
+            });
+    }
+
+    private boolean isFirstUnused(boolean[] used, int i)
+    {
+        if (used[i])
+            return false;
+        for (int j = 0; j < i; j++)
+            if (!used[j] && values[j] == values[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * A spliterator over the permutations that start with the indices at the positions before
+     * base, followed by an index from next[base] (inclusive) to limits[base] (exclusive), which
+     * generates them depth-first, as in the constructor of a recursive search but without
+     * recursion. Each permutation is expanded into the elements of the spliterator by a function,
+     * and any elements it expands into beyond the first are held until they are consumed.
+     */
+    private class PrefixSpliterator<T> implements Spliterator<T>
+    {
+        private final BiConsumer<int[], Consumer<? super T>> expander;
+        private final int[] indices;
+        private final boolean[] used;
+        // The next index to try, and the index before which to stop, at each position.
+        private final int[] next;
+        private final int[] limits;
+        private int base;
+        // The position at which the next index is to be chosen; it is less than base when the
+        // spliterator is exhausted.
+        private int depth;
+        private Deque<T> pending = new ArrayDeque<>();
+
+        PrefixSpliterator(BiConsumer<int[], Consumer<? super T>> expander)
+        {
+            this.expander = expander;
+            var n = values.length;
+            indices = new int[n];
+            used = new boolean[n];
+            next = new int[n];
+            limits = new int[n];
+            Arrays.fill(limits, n);
+            depth = n == 0 ? -1 : 0;
+        }
+
+        private PrefixSpliterator(PrefixSpliterator<T> other)
+        {
+            expander = other.expander;
+            indices = other.indices.clone();
+            used = other.used.clone();
+            next = other.next.clone();
+            limits = other.limits.clone();
+            base = other.base;
+            depth = other.depth;
+        }
+
+        /**
+         * Moves to the next permutation, and expands it into the pending elements. The
+         * generation of each permutation is recorded as a "permute"
+         * {@link SolverEvents.PhaseEvent}.
+         *
+         * @return whether there is a next permutation.
+         */
+        private boolean advance()
+        {
+            var event = SolverEvents.PhaseEvent.start("permute", values.length);
+            while (depth >= base)
+            {
+                var i = next[depth];
+                while (i < limits[depth] && !isFirstUnused(used, i))
+                    i++;
+                if (i >= limits[depth])
+                {
+                    if (--depth >= base)
+                        used[indices[depth]] = false;
+                    continue;
+                }
+                indices[depth] = i;
+                next[depth] = i + 1;
+                var length = depth + 1;
+                if (length < values.length)
+                {
+                    used[i] = true;
+                    next[++depth] = 0;
+                }
+                var before = pending.size();
+                expander.accept(Arrays.copyOf(indices, length), pending::add);
+                SolverEvents.PhaseEvent.end(event, pending.size() - before);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action)
+        {
+            while (pending.isEmpty())
+                if (!advance())
+                    return false;
+            action.accept(pending.poll());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action)
+        {
+            while (tryAdvance(action))
+                ;
+        }
+
+        /**
+         * Gets the indices that are still to be tried at the specified position, which is at most
+         * the depth. At a position before the depth, an index has been chosen, and its permutations
+         * are being generated; the indices after it are still to be tried.
+         */
+        private int[] remaining(int position)
+        {
+            var usedBefore = new boolean[values.length];
+            for (int i = 0; i < position; i++)
+                usedBefore[indices[i]] = true;
+            return IntStream.range(next[position], limits[position])
+                    .filter(i -> isFirstUnused(usedBefore, i))
+                    .toArray();
+        }
+
+        @Override
+        public Spliterator<T> trySplit()
+        {
+            for (int position = base; position <= depth; position++)
+            {
+                var remaining = remaining(position);
+                // At the depth, no index has been chosen, so there must be two to share out.
+                var inProgress = position < depth;
+                if (remaining.length < (inProgress ? 1 : 2))
+                    continue;
+                var split = remaining[remaining.length / 2];
+                var prefix = new PrefixSpliterator<>(this);
+                prefix.limits[position] = split;
+                prefix.pending = pending;
+                pending = new ArrayDeque<>();
+                for (int i = position; i < depth; i++)
+                    used[indices[i]] = false;
+                Arrays.fill(limits, position + 1, limits.length, values.length);
+                next[position] = split;
+                base = position;
+                depth = position;
+                return prefix;
+            }
+            return null;
+        }
+
+        /**
+         * Estimates the number of permutations left, as if there were no duplicates.
+         */
+        @Override
+        public long estimateSize()
+        {
+            var size = (long) pending.size();
+            for (int position = base; position <= depth; position++)
+                size += remaining(position).length * subtreeSizes[position + 1];
+            return size;
+        }
+
+        @Override
+        public int characteristics()
+        {
+            return ORDERED | IMMUTABLE | NONNULL;
+        }
+    }
+}
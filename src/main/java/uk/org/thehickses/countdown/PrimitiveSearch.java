@@ -0,0 +1,445 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Operator;
+import uk.org.thehickses.countdown.Solver.Priority;
+
+/**
+ * A search for the best solution which visits exactly the same candidate expressions, in exactly
+ * the same order, as the stream-based search in {@link Solver}, and so finds exactly the same
+ * solution. The difference is that the candidate expressions are held in primitive arrays which
+ * are allocated once per search, and reused; an {@link Expression} object is only built when a
+ * candidate is found that is better than the best one found so far.
+ *
+ * The permutations of the source numbers are visited depth first, so each permutation is visited
+ * immediately after the permutation which is one number shorter. The expressions that can be made
+ * from any contiguous range of the numbers in a permutation which does not include the last number
+ * are therefore the same as for the shorter permutation, and are not recalculated.
+ *
+ * The same canonical form rules are applied as in the stream-based search (see
+ * {@link Solver#isCommutativePruned(Operator, boolean)}), so the expressions visited remain the
+ * same.
+ */
+class PrimitiveSearch
+{
+    private static final Operator[] OPERATORS = Operator.values();
+    private static final int ADD = Operator.ADD.ordinal();
+    private static final int SUBTRACT = Operator.SUBTRACT.ordinal();
+    private static final int MULTIPLY = Operator.MULTIPLY.ordinal();
+    private static final int DIVIDE = Operator.DIVIDE.ordinal();
+    private static final int NUMBER = -1;
+    // The size of the storage for each expression: the value, the number of parentheses and the
+    // indices of the operands, and the priority and the operator.
+    private static final int BYTES_PER_EXPRESSION = Integer.BYTES * 4 + Byte.BYTES * 2;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int target;
+    private final int[] numbers;
+    private final Cancellation cancellation;
+    private final Consumer<Expression> progress;
+    private final MemoryBudget budget;
+
+    PrimitiveSearch(int target, int[] numbers, Cancellation cancellation,
+            Consumer<Expression> progress)
+    {
+        this(target, numbers, cancellation, progress, MemoryBudget.UNLIMITED);
+    }
+
+    /**
+     * Creates a search whose storage for candidate expressions is limited by the specified budget;
+     * if it would be exceeded, the search fails with {@link MemoryBudget.ExceededException}. Each
+     * of the branches searched in parallel has its own storage, which is released when the branch
+     * finishes.
+     */
+    PrimitiveSearch(int target, int[] numbers, Cancellation cancellation,
+            Consumer<Expression> progress, MemoryBudget budget)
+    {
+        this.target = target;
+        this.numbers = numbers;
+        this.cancellation = cancellation;
+        this.progress = progress;
+        this.budget = budget;
+    }
+
+    Expression find()
+    {
+        return find(1, numbers.length);
+    }
+
+    /**
+     * Searches the solutions that use 1, 2, ... source numbers in turn, stopping after the first
+     * number for which there is an exact solution, since no solution that uses more numbers can be
+     * better. Finds exactly the same solution as {@link #find()}.
+     */
+    Expression findByDeepening()
+    {
+        Expression best = null;
+        for (int count = 1; count <= numbers.length; count++)
+        {
+            var event = SolverEvents.PhaseEvent.start("depth", count);
+            var solution = find(count, count);
+            SolverEvents.PhaseEvent.end(event, 0);
+            if (solution != null)
+                best = best == null ? solution : Solver.evaluator().apply(best, solution);
+            if (best != null && best.difference == 0)
+                break;
+        }
+        return best;
+    }
+
+    private Expression find(int minCount, int maxCount)
+    {
+        var cutoff = new AtomicInteger(Integer.MAX_VALUE);
+        return IntStream.of(branches(numbers))
+                .parallel()
+                .mapToObj(i -> new Branch(minCount, maxCount, cutoff).search(i))
+                .filter(Objects::nonNull)
+                .reduce(Solver.evaluator())
+                .orElse(null);
+    }
+
+    /**
+     * Gets the branches of the search of the specified source numbers, in search order: the index
+     * of the first occurrence of each distinct source number, with which the permutations searched
+     * by the branch start.
+     */
+    static int[] branches(int[] numbers)
+    {
+        return IntStream.range(0, numbers.length)
+                .filter(i -> IntStream.range(0, i)
+                        .noneMatch(j -> numbers[j] == numbers[i]))
+                .toArray();
+    }
+
+    /**
+     * Searches just the branch that starts with the source number with the specified index,
+     * finding the best solution among the permutations that start with it, or null if there is
+     * none. Combining the solutions found for each branch using {@link Solver#evaluator()}, in the
+     * order of {@link #branches(int[])}, gives the solution found by {@link #find()}, or by
+     * {@link #findByDeepening()} if deepening is specified. When deepening, the branch stops after
+     * the first number of source numbers for which it has an exact solution, so may search more
+     * than the whole search would, but no solution it finds beyond that number of source numbers
+     * can be better than one found by the branch that stops first.
+     */
+    Expression findInBranch(int first, boolean deepening)
+    {
+        if (!deepening)
+            return new Branch(1, numbers.length, new AtomicInteger(Integer.MAX_VALUE))
+                    .search(first);
+        Expression best = null;
+        for (int count = 1; count <= numbers.length; count++)
+        {
+            var solution = new Branch(count, count, new AtomicInteger(Integer.MAX_VALUE))
+                    .search(first);
+            if (solution != null)
+                best = best == null ? solution : Solver.evaluator().apply(best, solution);
+            if (best != null && best.difference == 0)
+                break;
+        }
+        return best;
+    }
+
+    /**
+     * The search of all the permutations that start with a particular number, and whose lengths
+     * are in a specified range. Each branch has its own storage, so branches can be searched in
+     * parallel.
+     *
+     * If all the permutations searched are the same length, an exact solution with no parentheses
+     * cannot be bettered, so when a branch finds one it stops, and so do all the branches which
+     * start with a later number; any solution they found would be ranked no better, and would come
+     * later in the search order. The earlier branches carry on, since they may find an equally good
+     * solution which comes earlier in the search order.
+     */
+    private class Branch
+    {
+        private final int minCount;
+        private final int maxCount;
+        // The index of the first number of the earliest branch that has found a solution which
+        // cannot be bettered.
+        private final AtomicInteger cutoff;
+        private int first;
+        private boolean stopped = false;
+        private final int size = numbers.length;
+        private final int[] permutation = new int[size];
+        private final int[] indices = new int[size];
+        private final boolean[] used = new boolean[size];
+
+        // The expressions made from the numbers in each contiguous range of the current
+        // permutation occupy a contiguous range of the storage arrays; these arrays hold the
+        // start (inclusive) and end (exclusive) of the storage range for each range of numbers.
+        private final int[] rangeStart = new int[(size + 1) * (size + 1)];
+        private final int[] rangeEnd = new int[(size + 1) * (size + 1)];
+
+        // Storage for the expressions. The expression with index i has value values[i], contains
+        // parentheses[i] pairs of parentheses and has priority priorities[i]. If operators[i] is
+        // NUMBER it is a single number; otherwise it is made by applying the operator with that
+        // ordinal to the expressions with indices lefts[i] and rights[i].
+        private int[] values;
+        private int[] parentheses;
+        private byte[] priorities;
+        private byte[] operators;
+        private int[] lefts;
+        private int[] rights;
+        private int top = 0;
+
+        private int bestDifference = Integer.MAX_VALUE;
+        private int bestCount;
+        private int bestParentheses;
+        private Expression best;
+
+        private long expressionCount = 0;
+        private final long[] rejections = new long[OPERATORS.length];
+        private long commutativePruned = 0;
+        private long associativePruned = 0;
+        private final SolverEvents.PruneSampler pruneSampler = new SolverEvents.PruneSampler();
+        private long candidates = 0;
+
+        public Branch(int minCount, int maxCount, AtomicInteger cutoff)
+        {
+            this.minCount = minCount;
+            this.maxCount = maxCount;
+            this.cutoff = cutoff;
+            budget.reserve((long) INITIAL_CAPACITY * BYTES_PER_EXPRESSION);
+            values = new int[INITIAL_CAPACITY];
+            parentheses = new int[INITIAL_CAPACITY];
+            priorities = new byte[INITIAL_CAPACITY];
+            operators = new byte[INITIAL_CAPACITY];
+            lefts = new int[INITIAL_CAPACITY];
+            rights = new int[INITIAL_CAPACITY];
+        }
+
+        public Expression search(int first)
+        {
+            this.first = first;
+            var event = SolverEvents.PhaseEvent.start("branch", maxCount);
+            try
+            {
+                visit(0, first);
+            }
+            finally
+            {
+                budget.release((long) values.length * BYTES_PER_EXPRESSION);
+                SolverEvents.PhaseEvent.end(event, expressionCount);
+                SolverMetrics.record(expressionCount, rejections, candidates);
+                SolverMetrics.recordPruned(commutativePruned, associativePruned);
+            }
+            return best;
+        }
+
+        private void visit(int depth, int index)
+        {
+            if (stopped || cutoff.get() < first)
+                return;
+            cancellation.check();
+            used[index] = true;
+            permutation[depth] = numbers[index];
+            indices[depth] = index;
+            var mark = top;
+            evaluateRangesEndingAt(depth + 1);
+            if (depth + 1 < maxCount)
+                for (int i = 0; i < size; i++)
+                    if (isFirstUnused(i))
+                        visit(depth + 1, i);
+            top = mark;
+            used[index] = false;
+        }
+
+        private boolean isFirstUnused(int i)
+        {
+            if (used[i])
+                return false;
+            for (int j = 0; j < i; j++)
+                if (!used[j] && numbers[j] == numbers[i])
+                    return false;
+            return true;
+        }
+
+        private void evaluateRangesEndingAt(int end)
+        {
+            for (int start = end - 1; start >= 0; start--)
+            {
+                var range = start * (size + 1) + end;
+                rangeStart[range] = top;
+                if (start == end - 1)
+                    addNumber(permutation[start]);
+                else
+                    for (int split = start + 1; split < end; split++)
+                        combine(start, split, end);
+                rangeEnd[range] = top;
+            }
+            if (end >= minCount)
+                for (int i = rangeStart[end]; i < rangeEnd[end] && !stopped; i++)
+                    evaluate(i, end);
+        }
+
+        private void combine(int start, int split, int end)
+        {
+            var leftRange = start * (size + 1) + split;
+            var rightRange = split * (size + 1) + end;
+            var rightStart = rangeStart[rightRange];
+            var rightEnd = rangeEnd[rightRange];
+            var rightCount = rightEnd - rightStart;
+            var commutable = !Permutations.swappedComesFirst(permutation, indices, start, split,
+                    end);
+            for (int left = rangeStart[leftRange], leftEnd = rangeEnd[leftRange]; left < leftEnd;
+                    left++)
+            {
+                var a = values[left];
+                var add = isCanonical(Operator.ADD, commutable, left, rightCount);
+                var subtract = Solver.canSubtractFrom(a);
+                var multiply = Solver.canMultiply(a);
+                var divide = Solver.canDivide(a);
+                if (!subtract)
+                    rejectAll(Operator.SUBTRACT, SUBTRACT, a, rightCount);
+                if (!multiply)
+                    rejectAll(Operator.MULTIPLY, MULTIPLY, a, rightCount);
+                if (!divide)
+                    rejectAll(Operator.DIVIDE, DIVIDE, a, rightCount);
+                multiply = multiply && isCanonical(Operator.MULTIPLY, commutable, left, rightCount);
+                for (int right = rightStart; right < rightEnd; right++)
+                {
+                    var b = values[right];
+                    if (add)
+                    {
+                        if (Solver.canAdd(a, b))
+                            addCombination(a + b, ADD, left, right);
+                        else
+                            reject(Operator.ADD, ADD, a, b);
+                    }
+                    if (subtract)
+                    {
+                        if (Solver.canSubtract(a, b))
+                            addCombination(a - b, SUBTRACT, left, right);
+                        else
+                            reject(Operator.SUBTRACT, SUBTRACT, a, b);
+                    }
+                    if (multiply)
+                    {
+                        if (Solver.canMultiply(a, b))
+                            addCombination(a * b, MULTIPLY, left, right);
+                        else
+                            reject(Operator.MULTIPLY, MULTIPLY, a, b);
+                    }
+                    if (divide)
+                    {
+                        if (Solver.canDivide(a, b))
+                            addCombination(a / b, DIVIDE, left, right);
+                        else
+                            reject(Operator.DIVIDE, DIVIDE, a, b);
+                    }
+                }
+            }
+        }
+
+        private void rejectAll(Operator operator, int code, int a, int rightCount)
+        {
+            rejections[code] += rightCount;
+            pruneSampler.rejected(operator, a, (long) rightCount);
+        }
+
+        private void reject(Operator operator, int code, int a, int b)
+        {
+            rejections[code]++;
+            pruneSampler.rejected(operator, a, b);
+        }
+
+        private boolean isCanonical(Operator operator, boolean commutable, int left, int rightCount)
+        {
+            if (Solver.isCommutativePruned(operator, commutable))
+            {
+                commutativePruned += rightCount;
+                pruneSampler.pruned("commutative", operator, values[left], rightCount);
+            }
+            else if (operators[left] != NUMBER
+                    && Solver.isAssociativePruned(operator, OPERATORS[operators[left]]))
+            {
+                associativePruned += rightCount;
+                pruneSampler.pruned("associative", operator, values[left], rightCount);
+            }
+            else
+                return true;
+            return false;
+        }
+
+        private void addNumber(int value)
+        {
+            var i = allocate();
+            values[i] = value;
+            parentheses[i] = 0;
+            priorities[i] = Priority.ATOMIC;
+            operators[i] = NUMBER;
+        }
+
+        private void addCombination(int value, int operator, int left, int right)
+        {
+            var op = OPERATORS[operator];
+            var parenthesiseLeft = priorities[left] < op.priority;
+            var parenthesiseRight = priorities[right] < op.priority
+                    || (priorities[right] == op.priority && !op.commutative);
+            var i = allocate();
+            expressionCount++;
+            values[i] = value;
+            parentheses[i] = (parenthesiseLeft ? 1 : 0) + (parenthesiseRight ? 1 : 0)
+                    + parentheses[left] + parentheses[right];
+            priorities[i] = (byte) op.priority;
+            operators[i] = (byte) operator;
+            lefts[i] = left;
+            rights[i] = right;
+        }
+
+        private int allocate()
+        {
+            if (top == values.length)
+            {
+                var oldLength = values.length;
+                var length = oldLength * 2;
+                budget.reserve((long) length * BYTES_PER_EXPRESSION);
+                values = Arrays.copyOf(values, length);
+                parentheses = Arrays.copyOf(parentheses, length);
+                priorities = Arrays.copyOf(priorities, length);
+                operators = Arrays.copyOf(operators, length);
+                lefts = Arrays.copyOf(lefts, length);
+                rights = Arrays.copyOf(rights, length);
+                budget.release((long) oldLength * BYTES_PER_EXPRESSION);
+            }
+            return top++;
+        }
+
+        private void evaluate(int i, int count)
+        {
+            var difference = Math.abs(target - values[i]);
+            if (difference > 10)
+                return;
+            candidates++;
+            if (difference > bestDifference)
+                return;
+            if (difference == bestDifference && (count > bestCount
+                    || (count == bestCount && parentheses[i] >= bestParentheses)))
+                return;
+            bestDifference = difference;
+            bestCount = count;
+            bestParentheses = parentheses[i];
+            best = expression(i);
+            progress.accept(best);
+            if (minCount == maxCount && difference == 0 && bestParentheses == 0)
+            {
+                stopped = true;
+                cutoff.accumulateAndGet(first, Math::min);
+            }
+        }
+
+        private Expression expression(int i)
+        {
+            if (operators[i] == NUMBER)
+                return new Expression(values[i], target);
+            return new Expression(expression(lefts[i]), OPERATORS[operators[i]],
+                    expression(rights[i]), target);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package uk.org.thehickses.countdown;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The rules of a game: the range of valid target numbers, the number of source numbers, and the
+ * pools of small and large numbers from which the source numbers are drawn. Each pool contains
+ * each number as many times as it can be used in a game.
+ *
+ * The standard rules, as used in the TV show, are a target number in the range 100 to 999, and 6
+ * source numbers drawn from a pool of 20 small numbers (two each of 1 to 10) and a pool of 4 large
+ * numbers (25, 50, 75 and 100).
+ */
+public class Rules
+{
+    /**
+     * The maximum number of source numbers that a game can have.
+     */
+    public static final int MAX_NUMBER_COUNT = 10;
+
+    public static final Rules STANDARD = new Rules(100, 999, 6, IntStream.rangeClosed(1, 10)
+            .flatMap(i -> IntStream.of(i, i))
+            .toArray(), new int[] { 25, 50, 75, 100 });
+
+    private static final String PROPERTY_PREFIX = "countdown.rules.";
+
+    /**
+     * Gets the rules specified by the properties countdown.rules.min-target, max-target,
+     * number-count, small-numbers and large-numbers, which are looked up by the specified function.
+     * The pools of numbers are specified as comma-separated lists. Any property which is not set
+     * (for which the function returns null) takes its value from the standard rules.
+     */
+    public static Rules fromProperties(UnaryOperator<String> properties)
+    {
+        Function<String, String> property = name -> properties.apply(PROPERTY_PREFIX + name);
+        return new Rules(intProperty(property.apply("min-target"), STANDARD.minTarget),
+                intProperty(property.apply("max-target"), STANDARD.maxTarget),
+                intProperty(property.apply("number-count"), STANDARD.numberCount),
+                intsProperty(property.apply("small-numbers"), STANDARD.smallNumbers),
+                intsProperty(property.apply("large-numbers"), STANDARD.largeNumbers));
+    }
+
+    private static int intProperty(String value, int defaultValue)
+    {
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static int[] intsProperty(String value, int[] defaultValue)
+    {
+        if (value == null)
+            return defaultValue;
+        return Stream.of(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    private final int minTarget;
+    private final int maxTarget;
+    private final int numberCount;
+    private final int[] smallNumbers;
+    private final int[] largeNumbers;
+    private final Map<Integer, Long> occurrences;
+
+    public Rules(int minTarget, int maxTarget, int numberCount, int[] smallNumbers,
+            int[] largeNumbers)
+    {
+        if (minTarget < 1 || maxTarget < minTarget)
+            throw new IllegalArgumentException(
+                    "Target range must be non-empty, and contain only positive numbers");
+        if (numberCount < 1 || numberCount > MAX_NUMBER_COUNT)
+            throw new IllegalArgumentException(String.format(
+                    "Number of source numbers must be in the range 1 to %d inclusive",
+                    MAX_NUMBER_COUNT));
+        if (smallNumbers.length < numberCount)
+            throw new IllegalArgumentException(
+                    "Pool of small numbers must contain at least as many numbers as a game");
+        if (IntStream.concat(IntStream.of(smallNumbers), IntStream.of(largeNumbers))
+                .anyMatch(n -> n < 1))
+            throw new IllegalArgumentException("Source numbers must be positive");
+        if (IntStream.of(smallNumbers)
+                .anyMatch(s -> IntStream.of(largeNumbers)
+                        .anyMatch(l -> l == s)))
+            throw new IllegalArgumentException("A number cannot be both small and large");
+        this.minTarget = minTarget;
+        this.maxTarget = maxTarget;
+        this.numberCount = numberCount;
+        this.smallNumbers = smallNumbers.clone();
+        this.largeNumbers = largeNumbers.clone();
+        occurrences = IntStream.concat(IntStream.of(smallNumbers), IntStream.of(largeNumbers))
+                .boxed()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()));
+    }
+
+    public int getMinTarget()
+    {
+        return minTarget;
+    }
+
+    public int getMaxTarget()
+    {
+        return maxTarget;
+    }
+
+    public int getNumberCount()
+    {
+        return numberCount;
+    }
+
+    /**
+     * Gets the maximum number of large numbers that can be chosen for a game.
+     */
+    public int getMaxLargeNumbers()
+    {
+        return Math.min(largeNumbers.length, numberCount);
+    }
+
+    /**
+     * Randomly selects a target number.
+     */
+    public int selectTarget(Random rand)
+    {
+        return rand.nextInt(maxTarget - minTarget + 1) + minTarget;
+    }
+
+    /**
+     * Randomly selects the source numbers for a game, of which the specified number are large.
+     */
+    public int[] selectSourceNumbers(Random rand, int largeCount)
+    {
+        validateLargeNumberCount(largeCount);
+        var large = toList(largeNumbers);
+        var small = toList(smallNumbers);
+        return IntStream.range(0, numberCount)
+                .mapToObj(i -> i < largeCount ? large : small)
+                .mapToInt(numbers -> numbers.remove(rand.nextInt(numbers.size())))
+                .toArray();
+    }
+
+    private static List<Integer> toList(int[] numbers)
+    {
+        return IntStream.of(numbers)
+                .boxed()
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    public void validateLargeNumberCount(int largeCount)
+    {
+        if (largeCount < 0 || largeCount > getMaxLargeNumbers())
+            throw new IllegalArgumentException(String.format(
+                    "Number of large numbers must be in the range 0 to %d inclusive",
+                    getMaxLargeNumbers()));
+    }
+
+    public void validateTarget(int target)
+    {
+        if (target < minTarget || target > maxTarget)
+            throw new IllegalArgumentException(
+                    String.format("Target number must be in the range %d to %d inclusive",
+                            minTarget, maxTarget));
+    }
+
+    public void validateSourceNumbers(int[] numbers)
+    {
+        if (numbers.length > numberCount)
+            throw new IllegalArgumentException(String
+                    .format("No more than %d source numbers can be specified", numberCount));
+        IntStream.of(numbers)
+                .peek(this::validateSourceNumber)
+                .boxed()
+                .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))
+                .entrySet()
+                .stream()
+                .forEach(e -> validateSourceNumberCount(e.getKey(), e.getValue()));
+    }
+
+    private void validateSourceNumber(int n)
+    {
+        if (!occurrences.containsKey(n))
+            throw new IllegalArgumentException(String
+                    .format("Invalid source number %d: must be %s", n, describeSourceNumbers()));
+    }
+
+    private String describeSourceNumbers()
+    {
+        var small = describe(smallNumbers);
+        if (largeNumbers.length == 0)
+            return small;
+        return String.format("%s, or %s", small, describe(largeNumbers));
+    }
+
+    private static String describe(int[] pool)
+    {
+        var numbers = IntStream.of(pool)
+                .sorted()
+                .distinct()
+                .toArray();
+        var last = numbers[numbers.length - 1];
+        if (numbers.length > 2 && last - numbers[0] == numbers.length - 1)
+            return String.format("in the range %d to %d inclusive", numbers[0], last);
+        if (numbers.length == 1)
+            return String.valueOf(last);
+        return String.format("%s or %d", Arrays.stream(numbers, 0, numbers.length - 1)
+                .mapToObj(String::valueOf)
+                .collect(Collectors.joining(", ")), last);
+    }
+
+    private void validateSourceNumberCount(int number, long count)
+    {
+        var maxCount = occurrences.get(number);
+        if (count > maxCount)
+            throw new IllegalArgumentException(String.format("%s source number %d cannot appear %s",
+                    IntStream.of(largeNumbers)
+                            .anyMatch(n -> n == number) ? "Large" : "Small",
+                    number, maxCount == 1 ? "more than once"
+                            : maxCount == 2 ? "more than twice"
+                                    : String.format("more than %d times", maxCount)));
+    }
+}
@@ -0,0 +1,441 @@
+package uk.org.thehickses.countdown;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Strategy;
+
+/**
+ * Solves games by dividing the search into shards, and searching them on {@link ShardWorker}s,
+ * which may be on other machines.
+ *
+ * Each shard is one of the branches of the PRIMITIVE or DEEPENING search, which searches the
+ * permutations that start with one of the distinct source numbers (see
+ * {@link PrimitiveSearch#findInBranch(int, boolean)}). The best solutions of the shards are
+ * combined in branch order, so the solution found is exactly the same as that found by the same
+ * strategy in a single process.
+ *
+ * The coordinator makes as many connections to each worker as the worker can search shards at
+ * once, and each connection is served by its own thread, which takes the next shard to be
+ * searched from a queue shared by all the connections, so the shards are spread across the workers
+ * according to how quickly they search them. If a connection fails, or no reply is received within
+ * the timeout, the shard is put back at the front of the queue to be searched by another
+ * connection, and the connection is reopened; if it cannot be, the worker is assumed to have
+ * failed, and no more shards are sent to it. A shard on which a worker has timed out is not sent to
+ * that worker again, since it would most likely time out again, and a shard which has been sent to
+ * workers {@value #MAX_ATTEMPTS} times without a reply fails with an {@link IllegalStateException},
+ * as does one which no remaining worker can search. If all the connections have failed, the
+ * searches in progress fail in the same way.
+ */
+public class ShardCoordinator implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ShardCoordinator.class);
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(1);
+    private static final int MAX_ATTEMPTS = 3;
+
+    /**
+     * Parses a comma-separated list of worker addresses, each of the form host:port.
+     */
+    public static List<InetSocketAddress> parseAddresses(String addresses)
+    {
+        return Stream.of(addresses.split(","))
+                .map(String::trim)
+                .map(address ->
+                    {
+                        var colon = address.lastIndexOf(':');
+                        if (colon <= 0 || !address.substring(colon + 1)
+                                .matches("\\d+"))
+                            throw new IllegalArgumentException(
+                                    "Invalid worker address " + address + ": must be host:port");
+                        return InetSocketAddress.createUnresolved(address.substring(0, colon),
+                                Integer.parseInt(address.substring(colon + 1)));
+                    })
+                .collect(Collectors.toList());
+    }
+
+    private final Deque<Shard> queue = new ArrayDeque<>();
+    private final List<Connection> connections = new ArrayList<>();
+    private final AtomicInteger liveConnections = new AtomicInteger();
+    private final LongAdder reassignments = new LongAdder();
+    private final Duration timeout;
+    private volatile boolean closed;
+
+    public ShardCoordinator(List<InetSocketAddress> workers) throws IOException
+    {
+        this(workers, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates a coordinator, and connects it to the specified workers; a worker which cannot be
+     * reached is ignored.
+     *
+     * @param timeout
+     *            the time to wait for a worker to reply to a request, after which the worker is
+     *            assumed to have failed.
+     * @throws IOException
+     *             if none of the workers can be reached.
+     */
+    public ShardCoordinator(List<InetSocketAddress> workers, Duration timeout) throws IOException
+    {
+        this.timeout = timeout;
+        for (var worker : workers)
+        {
+            try
+            {
+                var first = new Connection(worker);
+                connections.add(first);
+                for (int i = 1; i < first.shardsAtOnce; i++)
+                    connections.add(new Connection(worker));
+                LOG.info("Connected to shard worker {} with {} connection(s)", worker,
+                        first.shardsAtOnce);
+            }
+            catch (IOException ex)
+            {
+                LOG.warn("Unable to connect to shard worker {}: {}", worker, ex.getMessage());
+            }
+        }
+        if (connections.isEmpty())
+            throw new IOException("Unable to connect to any of the shard workers");
+        liveConnections.set(connections.size());
+        var threadCount = new AtomicInteger();
+        connections.forEach(c ->
+            {
+                var thread = new Thread(c::run, "shard-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                c.thread = thread;
+                thread.start();
+            });
+    }
+
+    /**
+     * Gets the best solution of the specified game using the specified strategy, which must be
+     * PRIMITIVE or DEEPENING, by searching its shards on the workers.
+     *
+     * @throws IllegalStateException
+     *             if all the connections to the workers have failed.
+     */
+    public Expression solve(int target, int[] numbers, Strategy strategy)
+    {
+        var shards = IntStream.of(PrimitiveSearch.branches(numbers))
+                .mapToObj(first -> new Shard(
+                        new ShardProtocol.Request(strategy, first, target, numbers)))
+                .collect(Collectors.toList());
+        synchronized (queue)
+        {
+            queue.addAll(shards);
+            queue.notifyAll();
+        }
+        failUnsearchableShards();
+        try
+        {
+            return shards.stream()
+                    .map(s -> s.result.join())
+                    .filter(Objects::nonNull)
+                    .reduce(Solver.evaluator())
+                    .orElse(null);
+        }
+        catch (CompletionException ex)
+        {
+            if (ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the number of connections to the workers which have not failed.
+     */
+    public int getConnectionCount()
+    {
+        return liveConnections.get();
+    }
+
+    /**
+     * Gets the number of times a shard has been put back on the queue because the connection
+     * searching it failed.
+     */
+    public long getReassignments()
+    {
+        return reassignments.sum();
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        connections.forEach(Connection::close);
+        failQueuedShards();
+    }
+
+    private void failQueuedShards()
+    {
+        synchronized (queue)
+        {
+            for (var shard = queue.poll(); shard != null; shard = queue.poll())
+                shard.result.completeExceptionally(new IllegalStateException(
+                        closed ? "The shard coordinator has been closed"
+                                : "All the connections to the shard workers have failed"));
+        }
+    }
+
+    /**
+     * Fails the queued shards which none of the remaining connections can search, because all the
+     * workers they are connected to have timed out on them.
+     */
+    private void failUnsearchableShards()
+    {
+        if (closed || liveConnections.get() == 0)
+        {
+            failQueuedShards();
+            return;
+        }
+        synchronized (queue)
+        {
+            for (var it = queue.iterator(); it.hasNext();)
+            {
+                var shard = it.next();
+                if (connections.stream()
+                        .noneMatch(c -> c.live && c.canSearch(shard)))
+                {
+                    it.remove();
+                    shard.result.completeExceptionally(new IllegalStateException(
+                            "None of the remaining shard workers can search shard "
+                                    + shard.request));
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes the first queued shard that the specified connection can search, waiting if there is
+     * none.
+     */
+    private Shard take(Connection connection) throws InterruptedException
+    {
+        synchronized (queue)
+        {
+            while (true)
+            {
+                for (var it = queue.iterator(); it.hasNext();)
+                {
+                    var shard = it.next();
+                    if (connection.canSearch(shard))
+                    {
+                        it.remove();
+                        return shard;
+                    }
+                }
+                queue.wait();
+            }
+        }
+    }
+
+    /**
+     * Puts back a shard that the specified connection failed to search, so that another
+     * connection can search it, unless it has been sent to workers the maximum number of times.
+     */
+    private void reassign(Shard shard, Connection connection, boolean timedOut)
+    {
+        if (timedOut)
+            shard.timedOutOn.add(connection.address);
+        if (++shard.attempts >= MAX_ATTEMPTS)
+        {
+            shard.result.completeExceptionally(new IllegalStateException(
+                    "Shard " + shard.request + " failed on " + MAX_ATTEMPTS + " attempts"));
+            return;
+        }
+        synchronized (queue)
+        {
+            queue.addFirst(shard);
+            queue.notifyAll();
+        }
+        reassignments.increment();
+        failUnsearchableShards();
+    }
+
+    private static class Shard
+    {
+        final ShardProtocol.Request request;
+        final CompletableFuture<Expression> result = new CompletableFuture<>();
+        final Set<InetSocketAddress> timedOutOn = ConcurrentHashMap.newKeySet();
+        // Only updated by the connection searching the shard, which took it from the queue.
+        volatile int attempts;
+
+        Shard(ShardProtocol.Request request)
+        {
+            this.request = request;
+        }
+    }
+
+    /**
+     * A connection to a worker, which searches one shard at a time.
+     */
+    private class Connection
+    {
+        final InetSocketAddress address;
+        final int shardsAtOnce;
+        volatile boolean live = true;
+        Thread thread;
+        private Socket socket;
+        private BufferedReader in;
+        private PrintWriter out;
+
+        Connection(InetSocketAddress address) throws IOException
+        {
+            this.address = address;
+            shardsAtOnce = open();
+        }
+
+        /**
+         * Opens the connection, and returns the number of shards the worker can search at once,
+         * from its greeting.
+         */
+        private int open() throws IOException
+        {
+            var resolved = address.isUnresolved()
+                    ? new InetSocketAddress(address.getHostString(), address.getPort())
+                    : address;
+            socket = new Socket();
+            try
+            {
+                socket.connect(resolved, (int) timeout.toMillis());
+                socket.setSoTimeout((int) timeout.toMillis());
+                in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                out = new PrintWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+                var greeting = in.readLine();
+                if (greeting == null || !greeting.startsWith(ShardProtocol.GREETING + " "))
+                    throw new IOException("Invalid greeting from shard worker: " + greeting);
+                return Integer.parseInt(greeting.substring(ShardProtocol.GREETING.length() + 1));
+            }
+            catch (IOException | NumberFormatException ex)
+            {
+                socket.close();
+                throw ex instanceof IOException ? (IOException) ex
+                        : new IOException("Invalid greeting from shard worker", ex);
+            }
+        }
+
+        void run()
+        {
+            while (!closed)
+            {
+                Shard shard;
+                try
+                {
+                    shard = take(this);
+                }
+                catch (InterruptedException ex)
+                {
+                    break;
+                }
+                try
+                {
+                    out.println(shard.request);
+                    out.flush();
+                    var reply = in.readLine();
+                    if (reply == null)
+                        throw new IOException("Connection closed by shard worker");
+                    complete(shard, reply);
+                }
+                catch (IOException ex)
+                {
+                    if (closed)
+                        break;
+                    var timedOut = ex instanceof SocketTimeoutException;
+                    LOG.warn("Connection to shard worker {} {}: {}", address,
+                            timedOut ? "timed out" : "failed", ex.getMessage());
+                    // Closing the connection cancels the worker's search, if it is still going.
+                    var reopened = reopen();
+                    if (!reopened)
+                        retire();
+                    reassign(shard, this, timedOut);
+                    if (!reopened)
+                        return;
+                }
+            }
+            retire();
+            failUnsearchableShards();
+        }
+
+        private void retire()
+        {
+            live = false;
+            liveConnections.decrementAndGet();
+        }
+
+        boolean canSearch(Shard shard)
+        {
+            return !shard.timedOutOn.contains(address);
+        }
+
+        private void complete(Shard shard, String reply)
+        {
+            try
+            {
+                shard.result.complete(ShardProtocol.decode(reply, shard.request.target));
+            }
+            catch (RuntimeException ex)
+            {
+                shard.result.completeExceptionally(ex);
+            }
+        }
+
+        private boolean reopen()
+        {
+            close();
+            try
+            {
+                open();
+                return true;
+            }
+            catch (IOException ex)
+            {
+                LOG.warn("Unable to reconnect to shard worker {}, so it will not be used: {}",
+                        address, ex.getMessage());
+                return false;
+            }
+        }
+
+        void close()
+        {
+            if (thread != null && closed)
+                thread.interrupt();
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ex)
+            {
+                LOG.debug("Error closing connection to shard worker {}", address, ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package uk.org.thehickses.countdown;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Operator;
+import uk.org.thehickses.countdown.Solver.Strategy;
+
+/**
+ * The line-based text protocol between a {@link ShardCoordinator} and its {@link ShardWorker}s.
+ * Each line is encoded in UTF-8 and ends with a newline.
+ *
+ * When a connection is accepted, the worker sends the greeting {@value #GREETING} followed by the
+ * number of shards it can search at once (its number of processors), which is the number of
+ * connections the coordinator makes to it. The coordinator then sends requests, one at a time,
+ * each of which is the strategy, the index of the source number with which the branch searched
+ * starts, the target number and the source numbers, separated by spaces:
+ *
+ * <pre>
+ * DEEPENING 2 834 10,9,8,7,6,5
+ * </pre>
+ *
+ * and the worker replies with {@value #SOLUTION} followed by the solution in postfix notation,
+ * with its tokens separated by spaces (for example {@code SOLUTION 10 5 + 8 * 7 * 6 -}), or
+ * {@value #NONE} if there is no solution, or {@value #ERROR} followed by a message if the request
+ * is invalid.
+ */
+final class ShardProtocol
+{
+    static final String GREETING = "COUNTDOWN-WORKER";
+    static final String SOLUTION = "SOLUTION";
+    static final String NONE = "NONE";
+    static final String ERROR = "ERROR";
+
+    private ShardProtocol()
+    {
+    }
+
+    /**
+     * A request to search one shard of a game: the branch of the search which starts with a
+     * particular source number.
+     */
+    static class Request
+    {
+        final Strategy strategy;
+        final int first;
+        final int target;
+        final int[] numbers;
+
+        Request(Strategy strategy, int first, int target, int[] numbers)
+        {
+            if (strategy != Strategy.PRIMITIVE && strategy != Strategy.DEEPENING)
+                throw new IllegalArgumentException(
+                        "Only the PRIMITIVE and DEEPENING strategies can be sharded");
+            this.strategy = strategy;
+            this.first = first;
+            this.target = target;
+            this.numbers = numbers;
+        }
+
+        static Request parse(String line)
+        {
+            var fields = line.trim()
+                    .split(" ");
+            if (fields.length != 4)
+                throw new IllegalArgumentException("Invalid request: " + line);
+            try
+            {
+                var numbers = Stream.of(fields[3].split(","))
+                        .mapToInt(Integer::parseInt)
+                        .toArray();
+                var first = Integer.parseInt(fields[1]);
+                if (first < 0 || first >= numbers.length)
+                    throw new IllegalArgumentException("Invalid branch: " + first);
+                return new Request(Strategy.valueOf(fields[0]), first,
+                        Integer.parseInt(fields[2]), numbers);
+            }
+            catch (NumberFormatException ex)
+            {
+                throw new IllegalArgumentException("Invalid request: " + line, ex);
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s %d %d %s", strategy, first, target, IntStream.of(numbers)
+                    .mapToObj(Integer::toString)
+                    .collect(Collectors.joining(",")));
+        }
+    }
+
+    static String encode(Expression expression)
+    {
+        if (expression == null)
+            return NONE;
+        var tokens = new StringBuilder(SOLUTION);
+        appendPostfix(expression, tokens);
+        return tokens.toString();
+    }
+
+    private static void appendPostfix(Expression expression, StringBuilder tokens)
+    {
+        if (expression.operator == null)
+        {
+            tokens.append(' ')
+                    .append(expression.value);
+            return;
+        }
+        appendPostfix(expression.leftOperand, tokens);
+        appendPostfix(expression.rightOperand, tokens);
+        tokens.append(' ')
+                .append(expression.operator.symbol);
+    }
+
+    /**
+     * Decodes a reply, returning the solution, or null if there is none.
+     *
+     * @throws IllegalArgumentException
+     *             if the reply is an error, or is invalid.
+     */
+    static Expression decode(String reply, int target)
+    {
+        if (reply.equals(NONE))
+            return null;
+        if (reply.startsWith(ERROR + " "))
+            throw new IllegalArgumentException(reply.substring(ERROR.length() + 1));
+        if (!reply.startsWith(SOLUTION + " "))
+            throw new IllegalArgumentException("Invalid reply: " + reply);
+        var stack = new ArrayDeque<Expression>();
+        for (var token : reply.substring(SOLUTION.length() + 1)
+                .split(" "))
+        {
+            var operator = Arrays.stream(Operator.values())
+                    .filter(op -> op.symbol.equals(token))
+                    .findFirst();
+            if (operator.isEmpty())
+                stack.push(new Expression(Integer.parseInt(token), target));
+            else
+            {
+                var right = stack.pop();
+                var left = stack.pop();
+                stack.push(new Expression(left, operator.get(), right, target));
+            }
+        }
+        if (stack.size() != 1)
+            throw new IllegalArgumentException("Invalid reply: " + reply);
+        return stack.pop();
+    }
+}
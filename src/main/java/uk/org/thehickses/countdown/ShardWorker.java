@@ -0,0 +1,173 @@
+package uk.org.thehickses.countdown;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A worker which searches shards of games for a {@link ShardCoordinator}, listening for
+ * connections on a TCP port. Each connection searches one shard at a time; see
+ * {@link ShardProtocol}. While a shard is being searched, the connection's thread waits for the
+ * connection to be closed, and if it is, for example because the coordinator has timed out, the
+ * search is cancelled.
+ */
+public class ShardWorker implements AutoCloseable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ShardWorker.class);
+
+    /**
+     * Runs a worker on the port specified as the argument, or on a free port if it is 0 or not
+     * specified. When the worker is listening, it writes a line containing "Listening on port "
+     * and the port number to standard output. It runs until the process is stopped.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        var worker = new ShardWorker(args.length == 0 ? 0 : Integer.parseInt(args[0]));
+        System.out.println("Listening on port " + worker.getPort());
+        worker.run();
+    }
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool(r ->
+        {
+            var thread = new Thread(r, "shard-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    private final int shardsAtOnce = Runtime.getRuntime()
+            .availableProcessors();
+    private final LongAdder cancellations = new LongAdder();
+
+    public ShardWorker(int port) throws IOException
+    {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    public int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections until the worker is closed.
+     */
+    public void run()
+    {
+        LOG.info("Shard worker listening on port {}", getPort());
+        while (!serverSocket.isClosed())
+        {
+            try
+            {
+                var socket = serverSocket.accept();
+                connections.execute(() -> serve(socket));
+            }
+            catch (IOException ex)
+            {
+                if (!serverSocket.isClosed())
+                    LOG.error("Unable to accept connection", ex);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of searches which have been cancelled because their connections closed.
+     */
+    public long getCancellations()
+    {
+        return cancellations.sum();
+    }
+
+    private void serve(Socket socket)
+    {
+        var cancellation = new Cancellation();
+        CompletableFuture<Void> search = CompletableFuture.completedFuture(null);
+        try (socket;
+                var in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                var out = new PrintWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))
+        {
+            out.println(ShardProtocol.GREETING + " " + shardsAtOnce);
+            out.flush();
+            for (var line = in.readLine(); line != null; line = in.readLine())
+            {
+                // The coordinator waits for each reply before sending the next request, but if it
+                // does not the requests are still searched one at a time.
+                search.join();
+                var request = line;
+                var requestCancellation = new Cancellation();
+                cancellation = requestCancellation;
+                search = CompletableFuture.runAsync(() ->
+                    {
+                        String reply;
+                        try
+                        {
+                            reply = reply(request, requestCancellation);
+                        }
+                        catch (CancellationException ex)
+                        {
+                            LOG.info("Search of shard {} cancelled, as the connection closed",
+                                    request);
+                            cancellations.increment();
+                            return;
+                        }
+                        synchronized (out)
+                        {
+                            out.println(reply);
+                            out.flush();
+                        }
+                    }, connections);
+            }
+        }
+        catch (IOException | CompletionException ex)
+        {
+            LOG.info("Connection from {} closed: {}", socket.getRemoteSocketAddress(),
+                    ex.getMessage());
+        }
+        finally
+        {
+            cancellation.cancel();
+        }
+    }
+
+    private static String reply(String line, Cancellation cancellation)
+    {
+        try
+        {
+            var request = ShardProtocol.Request.parse(line);
+            var search = new PrimitiveSearch(request.target, request.numbers, cancellation,
+                    e ->
+                        {
+                        });
+            return ShardProtocol.encode(search.findInBranch(request.first,
+                    request.strategy == Solver.Strategy.DEEPENING));
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return ShardProtocol.ERROR + " " + ex.getMessage();
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+}
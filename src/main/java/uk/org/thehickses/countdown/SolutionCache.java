@@ -0,0 +1,238 @@
+package uk.org.thehickses.countdown;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * A cache of solutions, keyed by {@link CanonicalGame}, which holds at most a fixed number of
+ * solutions and evicts the least recently used one when that number would be exceeded. Games for
+ * which there is no solution are cached too.
+ *
+ * The cache is not locked while a game is being solved. If a game is requested while it is already
+ * being solved for another request, the request is coalesced with the one in flight: it waits for
+ * that solve to finish and gets the same result, whether that is a solution, or an exception (such
+ * as a {@link java.util.concurrent.CancellationException} if the solve timed out), which is
+ * rethrown to every request that was waiting for it. A game whose solve fails is not cached.
+ */
+public class SolutionCache
+{
+    private final int capacity;
+    private final Map<CanonicalGame, Optional<Expression>> solutions;
+    private final Map<CanonicalGame, Solve> inFlight = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long coalesced = 0;
+
+    public SolutionCache(int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Cache capacity must be at least 1");
+        this.capacity = capacity;
+        solutions = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CanonicalGame, Optional<Expression>> e)
+            {
+                if (size() <= SolutionCache.this.capacity)
+                    return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the solution to the specified game from the cache, or if it is not in the cache, gets
+     * it from the specified supplier and adds it to the cache; or if it is already being got from
+     * a supplier for another request, waits for that request's result.
+     */
+    public Expression get(int target, int[] numbers, Supplier<Expression> solver)
+    {
+        var game = new CanonicalGame(target, numbers);
+        var solve = new Solve();
+        var pending = lookUp(game, solve);
+        if (pending != solve)
+            return await(pending.result);
+        try
+        {
+            var solution = solver.get();
+            finish(game, solve, solution, null);
+            return solution;
+        }
+        catch (RuntimeException | Error ex)
+        {
+            finish(game, solve, null, ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Gets the solution to the specified game as {@link #get(int, int[], Supplier)} does, but
+     * without waiting for it: the specified supplier starts the solve and returns a future for its
+     * result, and the returned future is completed with the solution.
+     *
+     * Cancelling the returned future withdraws this request from the solve. The solve itself is
+     * cancelled, and not cached, when every request that is waiting for it has withdrawn.
+     */
+    public CompletableFuture<Expression> getAsync(int target, int[] numbers,
+            Supplier<CompletableFuture<Expression>> solver)
+    {
+        var game = new CanonicalGame(target, numbers);
+        var solve = new Solve();
+        var pending = lookUp(game, solve);
+        if (pending == solve)
+        {
+            CompletableFuture<Expression> search;
+            try
+            {
+                search = solver.get();
+            }
+            catch (RuntimeException | Error ex)
+            {
+                finish(game, solve, null, ex);
+                throw ex;
+            }
+            synchronized (this)
+            {
+                solve.search = search;
+            }
+            search.whenComplete((solution, ex) -> finish(game, solve, solution, ex));
+        }
+        var result = pending.result.thenApply(solution -> solution.orElse(null));
+        result.whenComplete((solution, ex) ->
+            {
+                if (result.isCancelled())
+                    withdraw(game, pending);
+            });
+        return result;
+    }
+
+    /**
+     * Looks up the specified game, and returns the solve whose result is the solution: a completed
+     * one if the solution is cached, or the one in flight for the game if there is one, or the
+     * specified one, which is then in flight, and which the caller must run.
+     */
+    private synchronized Solve lookUp(CanonicalGame game, Solve solve)
+    {
+        var solution = solutions.get(game);
+        if (solution != null)
+        {
+            hits++;
+            var cached = new Solve();
+            cached.result.complete(solution);
+            return cached;
+        }
+        var pending = inFlight.get(game);
+        if (pending != null)
+        {
+            coalesced++;
+            pending.waiters++;
+            return pending;
+        }
+        misses++;
+        inFlight.put(game, solve);
+        return solve;
+    }
+
+    private void finish(CanonicalGame game, Solve solve, Expression solution, Throwable ex)
+    {
+        synchronized (this)
+        {
+            inFlight.remove(game, solve);
+            if (ex == null)
+                solutions.put(game, Optional.ofNullable(solution));
+        }
+        if (ex == null)
+            solve.result.complete(Optional.ofNullable(solution));
+        else
+            solve.result.completeExceptionally(ex);
+    }
+
+    private void withdraw(CanonicalGame game, Solve solve)
+    {
+        Future<?> search;
+        synchronized (this)
+        {
+            if (--solve.waiters > 0 || solve.search == null)
+                return;
+            inFlight.remove(game, solve);
+            search = solve.search;
+        }
+        search.cancel(true);
+    }
+
+    private static Expression await(CompletableFuture<Optional<Expression>> solution)
+    {
+        try
+        {
+            return solution.join()
+                    .orElse(null);
+        }
+        catch (CompletionException ex)
+        {
+            var cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw ex;
+        }
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized int getSize()
+    {
+        return solutions.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of requests which were coalesced with a solve that was already in flight,
+     * and so saved a solve.
+     */
+    public synchronized long getCoalesced()
+    {
+        return coalesced;
+    }
+
+    /**
+     * A solve in progress, whose result is completed when it finishes.
+     */
+    private static class Solve
+    {
+        final CompletableFuture<Optional<Expression>> result = new CompletableFuture<>();
+        // The number of requests waiting for the result, and the running search if it can be
+        // cancelled; both are guarded by the cache's lock.
+        int waiters = 1;
+        Future<?> search;
+    }
+}
@@ -1,21 +1,30 @@
 package uk.org.thehickses.countdown;
 
-import java.time.Instant;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.IntBinaryOperator;
-import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
@@ -24,6 +33,10 @@ import org.slf4j.LoggerFactory;
 public class Solver
 {
     private static final Logger LOG = LoggerFactory.getLogger(Solver.class);
+    private static final String BATCH_OPTION = "-batch";
+    private static final String COMPLETION_ORDER_OPTION = "-completion";
+    private static final String WORKERS_OPTION = "-workers";
+    private static final String WORKER_OPTION = "-worker";
 
     public static void main(String[] args)
     {
@@ -38,13 +51,23 @@ public class Solver
         }
     }
 
-    private static boolean run(String[] args)
+    private static boolean run(String[] args) throws IOException
     {
         try
         {
             LOG.info("Invoked with argument(s): {}", Stream.of(args)
                     .collect(Collectors.joining(" ")));
-            Solver solver = instance(args);
+            if (args.length > 0 && args[0].equals(BATCH_OPTION))
+            {
+                runBatch(ArrayUtils.remove(args, 0));
+                return true;
+            }
+            if (args.length > 0 && args[0].equals(WORKER_OPTION))
+            {
+                ShardWorker.main(ArrayUtils.remove(args, 0));
+                return true;
+            }
+            Solver solver = instance(Rules.fromProperties(System::getProperty), args);
             solver.solve();
             return true;
         }
@@ -55,7 +78,68 @@ public class Solver
         }
     }
 
+    /**
+     * Solves a batch of games, one per line, read from the input file specified as the first
+     * argument, or standard input if there is none or it is "-"; and writes the results, one per
+     * line, to the output file specified as the second argument, or standard output if there is
+     * none. The results are written in the order of the games, unless the arguments are preceded
+     * by the completion order option, in which case they are written as soon as they are
+     * available. If the workers option is specified, followed by a comma-separated list of the
+     * addresses (host:port) of {@link ShardWorker}s, the games are solved with the DEEPENING
+     * strategy by sharding them across the workers. See {@link BatchSolver} and
+     * {@link ShardCoordinator}.
+     */
+    private static void runBatch(String[] args) throws IOException
+    {
+        var order = args.length > 0 && args[0].equals(COMPLETION_ORDER_OPTION)
+                ? BatchSolver.Order.COMPLETION
+                : BatchSolver.Order.INPUT;
+        if (order == BatchSolver.Order.COMPLETION)
+            args = ArrayUtils.remove(args, 0);
+        var workers = args.length > 1 && args[0].equals(WORKERS_OPTION)
+                ? ShardCoordinator.parseAddresses(args[1])
+                : null;
+        if (workers != null)
+            args = ArrayUtils.subarray(args, 2, args.length);
+        if (args.length > 2)
+            throw new IllegalArgumentException(String.format(
+                    "Usage: %s [%s] [%s host:port,...] [input file|-] [output file]",
+                    BATCH_OPTION, COMPLETION_ORDER_OPTION, WORKERS_OPTION));
+        var input = args.length == 0 || args[0].equals("-") ? System.in
+                : Files.newInputStream(Paths.get(args[0]));
+        var output = args.length < 2 ? System.out
+                : new PrintStream(Files.newOutputStream(Paths.get(args[1])), false,
+                        StandardCharsets.UTF_8);
+        var batchSolver = new BatchSolver(Rules.fromProperties(System::getProperty),
+                Runtime.getRuntime()
+                        .availableProcessors());
+        var coordinator = workers == null ? null : new ShardCoordinator(workers);
+        try (var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+                output)
+        {
+            batchSolver.solve(reader.lines(), order,
+                    coordinator == null ? Solver::solve
+                            : s -> s.solve(Strategy.DEEPENING, coordinator),
+                    output::println);
+        }
+        finally
+        {
+            batchSolver.shutdown();
+            if (coordinator != null)
+                coordinator.close();
+        }
+    }
+
     public static Solver instance(String[] args)
+    {
+        return instance(Rules.STANDARD, args);
+    }
+
+    /**
+     * Creates a solver for the game specified by the arguments (see {@link #main(String[])}),
+     * which must be valid according to the specified rules.
+     */
+    public static Solver instance(Rules rules, String[] args)
     {
         if (args.length == 0)
             throw new IllegalArgumentException("At least one argument must be specified");
@@ -64,8 +148,8 @@ public class Solver
                 .mapToInt(Integer::parseInt)
                 .toArray();
         if (nums.length == 1)
-            return instance(nums[0]);
-        return instance(nums);
+            return instance(rules, nums[0]);
+        return instance(rules, nums);
     }
 
     private static void validateArg(String arg)
@@ -77,69 +161,62 @@ public class Solver
 
     public static Solver instance(int bigNumbers)
     {
-        if (bigNumbers > 4)
-            throw new IllegalArgumentException(
-                    "Number of large numbers must be in the range 0 to 4 inclusive");
+        return instance(Rules.STANDARD, bigNumbers);
+    }
+
+    public static Solver instance(Rules rules, int bigNumbers)
+    {
+        rules.validateLargeNumberCount(bigNumbers);
         LOG.info("Randomly selecting target number, and {} large and {} small source numbers",
-                bigNumbers, 6 - bigNumbers);
+                bigNumbers, rules.getNumberCount() - bigNumbers);
         var rand = new Random();
-        var target = rand.nextInt(900) + 100;
-        var numbers = selectRandomSourceNumbers(rand, bigNumbers);
+        var target = rules.selectTarget(rand);
+        var numbers = rules.selectSourceNumbers(rand, bigNumbers);
         return new Solver(target, numbers);
     }
 
-    private static int[] selectRandomSourceNumbers(Random rand, int largeCount)
+    public static Solver instance(int[] nums)
     {
-        var large = IntStream.rangeClosed(1, 4)
-                .map(i -> i * 25)
-                .boxed()
-                .collect(Collectors.toList());
-        var small = IntStream.rangeClosed(1, 10)
-                .flatMap(i -> IntStream.of(i, i))
-                .boxed()
-                .collect(Collectors.toList());
-        return IntStream.range(0, 6)
-                .mapToObj(i -> i < largeCount ? large : small)
-                .mapToInt(numbers -> numbers.remove(rand.nextInt(numbers.size())))
-                .toArray();
+        return instance(Rules.STANDARD, nums);
     }
 
-    public static Solver instance(int[] nums)
+    /**
+     * Creates a solver for the game whose target number is the first of the specified numbers,
+     * and whose source numbers are the rest, which must be valid according to the specified rules.
+     */
+    public static Solver instance(Rules rules, int[] nums)
     {
         var target = nums[0];
-        if (target < 100 || target > 999)
-            throw new IllegalArgumentException(
-                    "Target number must be in the range 100 to 999 inclusive");
+        rules.validateTarget(target);
         var numbers = ArrayUtils.subarray(nums, 1, nums.length);
-        IntStream.of(numbers)
-                .peek(Solver::validateSourceNumber)
-                .boxed()
-                .collect(Collectors.groupingBy(Function.identity(),
-                        Collectors.reducing(0, e -> 1, Integer::sum)))
-                .entrySet()
-                .stream()
-                .forEach(Solver::validateSourceNumberCount);
+        rules.validateSourceNumbers(numbers);
         return new Solver(target, numbers);
     }
 
-    private static void validateSourceNumber(int n)
+    public static TargetTable solveAllTargets(int[] numbers)
     {
-        if (n < 1 || n > 100 || (n > 10 && n % 25 != 0))
-            throw new IllegalArgumentException(String
-                    .format("Invalid source number %d: must be in the range 1 to 10 inclusive, "
-                            + "or 25, 50, 75 or 100", n));
+        return solveAllTargets(Rules.STANDARD, numbers, Cancellation.NONE);
     }
 
-    private static void validateSourceNumberCount(Entry<Integer, Integer> e)
+    /**
+     * Gets the best solution for every target number allowed by the specified rules, using the
+     * specified source numbers, which must be valid according to the rules. All the targets are
+     * solved in a single pass, which takes about as long as solving one game with the SUBSETS
+     * strategy. The search can be cancelled by the specified cancellation.
+     *
+     * @throws CancellationException
+     *             if the search is cancelled.
+     */
+    public static TargetTable solveAllTargets(Rules rules, int[] numbers,
+            Cancellation cancellation)
     {
-        var number = e.getKey();
-        var occurrences = e.getValue();
-        if (number <= 10 && occurrences > 2)
-            throw new IllegalArgumentException(
-                    String.format("Small source number %d cannot appear more than twice", number));
-        if (number > 10 && occurrences > 1)
-            throw new IllegalArgumentException(
-                    String.format("Large source number %d cannot appear more than once", number));
+        rules.validateSourceNumbers(numbers);
+        LOG.info("Solving all targets from {} to {} for numbers: {}", rules.getMinTarget(),
+                rules.getMaxTarget(), Arrays.toString(numbers));
+        var res = new TimedResult<>(() -> TargetTable.solve(numbers, rules.getMinTarget(),
+                rules.getMaxTarget(), cancellation));
+        LOG.info("Completed in {} ms", res.timeToRunMs);
+        return res.result;
     }
 
     private final int target;
@@ -161,87 +238,347 @@ public class Solver
         return numbers;
     }
 
+    /**
+     * Gets the best solution. If there is an answer table (see {@link AnswerTable#shared()}) which
+     * includes this game, the solution is looked up in it; otherwise it is found by the default
+     * strategy (see {@link #defaultStrategy()}).
+     */
     public Expression solve()
+    {
+        return solve(Cancellation.NONE);
+    }
+
+    /**
+     * As {@link #solve()}, but the search can be cancelled by the specified cancellation.
+     *
+     * @throws CancellationException
+     *             if the search is cancelled.
+     */
+    public Expression solve(Cancellation cancellation)
+    {
+        var table = AnswerTable.shared()
+                .filter(t -> t.covers(target, numbers));
+        if (table.isPresent())
+            return solve("TABLE", () -> table.get()
+                    .lookup(target, numbers));
+        return solve(defaultStrategy(), cancellation);
+    }
+
+    /**
+     * Gets the best solution from the specified cache, or if it is not in the cache, solves it
+     * using {@link #solve()} and adds it to the cache.
+     */
+    public Expression solve(SolutionCache cache)
+    {
+        return cache.get(target, numbers, this::solve);
+    }
+
+    public Expression solve(Strategy strategy)
+    {
+        return solve(strategy, Cancellation.NONE);
+    }
+
+    /**
+     * Gets the best solution using the specified strategy. The search can be cancelled by the
+     * specified cancellation.
+     *
+     * @throws CancellationException
+     *             if the search is cancelled.
+     */
+    public Expression solve(Strategy strategy, Cancellation cancellation)
+    {
+        return solve(strategy.name(), () -> strategy.search.find(this, cancellation, e ->
+            {
+            }));
+    }
+
+    /**
+     * Gets the best solution using the specified strategy, which must be PRIMITIVE or DEEPENING,
+     * by searching its shards on the workers of the specified coordinator. The solution is exactly
+     * the same as that found by the strategy in this process.
+     *
+     * @throws IllegalStateException
+     *             if all the connections to the workers have failed.
+     */
+    public Expression solve(Strategy strategy, ShardCoordinator coordinator)
+    {
+        return solve("SHARDED " + strategy.name(),
+                () -> coordinator.solve(target, numbers, strategy));
+    }
+
+    /**
+     * Gets the best solution using the specified incremental solver, which keeps the values that
+     * can be made from the source numbers it was last given, so that only those involving any
+     * further source numbers are calculated. The solution is ranked the same as that found by the
+     * other strategies, and is the same as that found by SUBSETS.
+     *
+     * @throws MemoryBudget.ExceededException
+     *             if calculating the values would exceed the solver's memory budget.
+     */
+    public Expression solve(IncrementalSolver incremental)
+    {
+        return solve(incremental, Cancellation.NONE);
+    }
+
+    /**
+     * As {@link #solve(IncrementalSolver)}, but the search can be cancelled by the specified
+     * cancellation.
+     *
+     * @throws CancellationException
+     *             if the search is cancelled.
+     */
+    public Expression solve(IncrementalSolver incremental, Cancellation cancellation)
+    {
+        return solve("INCREMENTAL", () -> incremental.solve(target, numbers, cancellation));
+    }
+
+    /**
+     * As {@link #solve()}, but if the search has not completed when the specified time budget runs
+     * out, it stops and the best solution found so far is returned.
+     */
+    public AnytimeResult solveWithin(Duration budget)
+    {
+        var table = AnswerTable.shared()
+                .filter(t -> t.covers(target, numbers));
+        if (table.isPresent())
+            return new AnytimeResult(solve("TABLE", () -> table.get()
+                    .lookup(target, numbers)), true);
+        return solveWithin(defaultStrategy(), budget);
+    }
+
+    /**
+     * Gets the strategy used when none is specified: DEEPENING for games of up to 6 source
+     * numbers, and BACKWARD for larger games, since the time taken by the permutation-based
+     * strategies grows factorially with the number of source numbers.
+     */
+    private Strategy defaultStrategy()
+    {
+        return numbers.length <= 6 ? Strategy.DEEPENING : Strategy.BACKWARD;
+    }
+
+    /**
+     * Gets the best solution using the specified strategy, but if the search has not completed
+     * when the specified time budget runs out, it stops and the best solution found so far is
+     * returned. The solution found so far is ranked in the same way as the final solution, but
+     * where two solutions are ranked the same, it is the one that was found first by any of the
+     * parallel branches of the search.
+     */
+    public AnytimeResult solveWithin(Strategy strategy, Duration budget)
+    {
+        var best = new BestSoFar();
+        var complete = new AtomicBoolean(true);
+        var solution = solve(strategy.name(), () ->
+            {
+                try
+                {
+                    return strategy.search.find(this, Cancellation.withDeadline(budget), best);
+                }
+                catch (CancellationException ex)
+                {
+                    complete.set(false);
+                    return best.get();
+                }
+            });
+        if (!complete.get())
+            LOG.info("Time budget of {} ms ran out before the search completed", budget.toMillis());
+        return new AnytimeResult(solution, complete.get());
+    }
+
+    /**
+     * As {@link #solve()}, but the storage retained by the search for the values it has made is
+     * limited to the specified number of bytes (see {@link MemoryBudget}), so that the memory
+     * needed by a number of concurrent solves is known. STREAM, which holds every expression as an
+     * object, is never used: games of more than 6 source numbers are solved by BACKWARD, which
+     * holds the values made from each subset, and if that needs more than the budget, by
+     * DEEPENING, which holds far fewer because it recomputes them for each permutation. Games of
+     * up to 6 source numbers are solved by DEEPENING.
+     *
+     * @throws MemoryBudget.ExceededException
+     *             if DEEPENING also needs more than the budget.
+     */
+    public MemoryBoundedResult solveWithinMemory(long budget)
+    {
+        return solveWithinMemory(budget, Cancellation.NONE);
+    }
+
+    /**
+     * As {@link #solveWithinMemory(long)}, but the search can be cancelled by the specified
+     * cancellation.
+     *
+     * @throws CancellationException
+     *             if the search is cancelled.
+     */
+    public MemoryBoundedResult solveWithinMemory(long budget, Cancellation cancellation)
+    {
+        var table = AnswerTable.shared()
+                .filter(t -> t.covers(target, numbers));
+        if (table.isPresent())
+            return new MemoryBoundedResult(solve("TABLE", () -> table.get()
+                    .lookup(target, numbers)), null, 0);
+        var peak = 0L;
+        if (defaultStrategy() == Strategy.BACKWARD)
+        {
+            var memory = new MemoryBudget(budget);
+            try
+            {
+                var solution = solve(Strategy.BACKWARD.name(),
+                        () -> new SubsetSearch(numbers, cancellation, memory)
+                                .solveBackward(target));
+                return memoryBoundedResult(solution, Strategy.BACKWARD, memory);
+            }
+            catch (MemoryBudget.ExceededException ex)
+            {
+                LOG.info("{}, trying DEEPENING instead", ex.getMessage());
+                peak = memory.getPeak();
+            }
+        }
+        var memory = new MemoryBudget(budget);
+        var solution = solve(Strategy.DEEPENING.name(),
+                () -> new PrimitiveSearch(target, numbers, cancellation, e ->
+                    {
+                    }, memory).findByDeepening());
+        var result = memoryBoundedResult(solution, Strategy.DEEPENING, memory);
+        return peak <= result.peakRetainedBytes ? result
+                : new MemoryBoundedResult(solution, Strategy.DEEPENING, peak);
+    }
+
+    private static MemoryBoundedResult memoryBoundedResult(Expression solution, Strategy strategy,
+            MemoryBudget memory)
+    {
+        LOG.info("Peak retained storage {} bytes, budget {} bytes", memory.getPeak(),
+                memory.getLimit());
+        SolverMetrics.RETAINED.record(memory.getPeak());
+        return new MemoryBoundedResult(solution, strategy, memory.getPeak());
+    }
+
+    private Expression solve(String strategy, Supplier<Expression> search)
     {
         LOG.info("-------------------------------------------------------------------");
         LOG.info("Target: {}, numbers: {}", target, Arrays.toString(numbers));
-        var res = new TimedResult<>(this::findSolution);
+        var event = SolverEvents.SolveEvent.start(target, numbers, strategy);
+        TimedResult<Expression> res;
+        try
+        {
+            res = new TimedResult<>(search);
+        }
+        catch (CancellationException ex)
+        {
+            event.end(null, true);
+            throw ex;
+        }
         var answer = res.result;
+        event.end(answer, false);
         if (answer == null)
             LOG.info("No solution found");
         else
             LOG.info("Best solution is {} = {}", answer, answer.value);
         LOG.info("Completed in {} ms", res.timeToRunMs);
+        SolverMetrics.recordSolve(res.timeToRunNs, answer != null);
         LOG.info("-------------------------------------------------------------------");
         return answer;
     }
 
-    private Expression findSolution()
+    private Expression findSolution(Cancellation cancellation, Consumer<Expression> progress)
     {
-        return permute(IntStream.of(numbers)
-                .mapToObj(n -> new Expression(n, target))).parallel()
-                        .flatMap(this::expressions)
-                        .filter(e -> e.difference <= 10)
-                        .reduce(evaluator())
-                        .orElse(null);
+        var items = IntStream.of(numbers)
+                .mapToObj(n -> new Expression(n, target))
+                .toArray(Expression[]::new);
+        var evaluator = evaluator();
+        BinaryOperator<Expression> best = (e1, e2) -> e1 == null ? e2
+                : e2 == null ? e1 : evaluator.apply(e1, e2);
+        return StreamSupport.stream(new Permutations(numbers).workItems(), true)
+                .peek(w -> cancellation.check())
+                .flatMap(w -> expressions(w, items))
+                .filter(e -> e.difference <= 10)
+                .peek(e -> SolverMetrics.CANDIDATES.increment())
+                .peek(progress)
+                .reduce(null, best, (e1, e2) ->
+                    {
+                        // Combines the best solutions of two parts of the parallel search.
+                        var event = SolverEvents.PhaseEvent.start("reduce", numbers.length);
+                        var result = best.apply(e1, e2);
+                        SolverEvents.PhaseEvent.end(event, (e1 == null ? 0 : 1)
+                                + (e2 == null ? 0 : 1));
+                        return result;
+                    });
+    }
+
+    private Stream<Expression> expressions(Permutations.WorkItem item, Expression[] items)
+    {
+        var permutation = IntStream.of(item.indices)
+                .mapToObj(i -> items[i])
+                .toArray(Expression[]::new);
+        if (item.split == 0)
+            return Stream.of(permutation);
+        var expressions = expressionsAt(item.split, permutation, item.indices);
+        var event = SolverEvents.PhaseEvent.start("enumerate", permutation.length);
+        if (event == null)
+            return expressions;
+        // The stream is closed when all its expressions have been consumed, so the event covers
+        // their evaluation as well as their enumeration.
+        var count = new long[1];
+        return expressions.peek(e -> count[0]++)
+                .onClose(() -> SolverEvents.PhaseEvent.end(event, count[0]));
     }
 
-    private Stream<Expression[]> permute(Stream<Expression> exprs)
+    Stream<Expression[]> permute(Stream<Expression> exprs)
     {
         var items = exprs.toArray(Expression[]::new);
-        if (items.length == 1)
-            return Stream.generate(() -> items)
-                    .limit(1);
-        var used = usedChecker();
-        return IntStream.range(0, items.length)
-                .filter(i -> !used.test(items[i]))
-                .boxed()
-                .flatMap(i -> permuteAt(i, items));
-    }
-
-    private Stream<Expression[]> permuteAt(int i, Expression[] items)
-    {
-        var others = IntStream.range(0, items.length)
-                .filter(j -> j != i)
-                .mapToObj(j -> items[j]);
-        var suffixes = Stream.concat(Stream.generate(() -> new Expression[0])
-                .limit(1), permute(others));
-        return suffixes.map(s -> ArrayUtils.addFirst(s, items[i]));
+        var values = Stream.of(items)
+                .mapToInt(e -> e.value)
+                .toArray();
+        return StreamSupport.stream(new Permutations(values).permutations(indices -> IntStream
+                .of(indices)
+                .mapToObj(i -> items[i])
+                .toArray(Expression[]::new)), false);
     }
 
-    private Predicate<Expression> usedChecker()
+    /**
+     * Gets the expressions that can be made from the specified permutation, which is taken to be
+     * the permutation of the source numbers that has them in their original order.
+     */
+    Stream<Expression> expressions(Expression[] permutation)
     {
-        var usedValues = new HashSet<>();
-        return value -> !usedValues.add(value.value);
+        return expressions(permutation, IntStream.range(0, permutation.length)
+                .toArray());
     }
 
-    private Stream<Expression> expressions(Expression[] permutation)
+    private Stream<Expression> expressions(Expression[] permutation, int[] indices)
     {
         if (permutation.length == 1)
             return Stream.of(permutation);
         return IntStream.range(1, permutation.length)
                 .boxed()
-                .flatMap(i -> expressionsAt(i, permutation));
+                .flatMap(i -> expressionsAt(i, permutation, indices));
     }
 
-    private Stream<Expression> expressionsAt(int i, Expression[] permutation)
+    private Stream<Expression> expressionsAt(int i, Expression[] permutation, int[] indices)
     {
-        var leftOperands = expressions(ArrayUtils.subarray(permutation, 0, i));
-        var rightOperands = expressions(ArrayUtils.subarray(permutation, i, permutation.length))
-                .toArray(Expression[]::new);
-        return leftOperands.map(this::expressionsUsing)
+        var leftOperands = expressions(ArrayUtils.subarray(permutation, 0, i),
+                ArrayUtils.subarray(indices, 0, i));
+        var rightOperands = expressions(ArrayUtils.subarray(permutation, i, permutation.length),
+                ArrayUtils.subarray(indices, i, permutation.length)).toArray(Expression[]::new);
+        var values = Stream.of(permutation)
+                .mapToInt(e -> e.value)
+                .toArray();
+        var commutable = !Permutations.swappedComesFirst(values, indices, 0, i,
+                permutation.length);
+        return leftOperands.map(left -> expressionsUsing(left, rightOperands.length, commutable))
                 .flatMap(op -> op.apply(Stream.of(rightOperands)));
     }
 
-    private UnaryOperator<Stream<Expression>> expressionsUsing(Expression leftOperand)
+    private UnaryOperator<Stream<Expression>> expressionsUsing(Expression leftOperand,
+            int rightOperandCount, boolean commutable)
     {
-        var combiners = combinersUsing(leftOperand).toArray(Combiner[]::new);
+        var combiners = combinersUsing(leftOperand, rightOperandCount, commutable)
+                .toArray(Combiner[]::new);
         return rightOperands -> rightOperands.flatMap(rightOperand -> Stream.of(combiners)
                 .map(c -> c.apply(rightOperand))
-                .filter(Objects::nonNull));
+                .filter(Objects::nonNull)
+                .peek(e -> SolverMetrics.EXPRESSIONS.increment()));
     }
 
-    private BinaryOperator<Expression> evaluator()
+    static BinaryOperator<Expression> evaluator()
     {
         var comp = Comparator.comparingInt((Expression e) -> e.difference)
                 .thenComparingInt(e -> e.numbers.length)
@@ -249,7 +586,101 @@ public class Solver
         return (e1, e2) -> comp.compare(e1, e2) <= 0 ? e1 : e2;
     }
 
-    private static interface Priority
+    /**
+     * The available implementations of the search for the best solution. They all find the same
+     * solution, but have different performance characteristics.
+     */
+    public static enum Strategy
+    {
+        /**
+         * Builds every candidate expression as an {@link Expression} object, using streams.
+         */
+        STREAM((s, c, p) -> s.findSolution(c, p)),
+        /**
+         * Holds candidate expressions in preallocated primitive arrays, and only builds
+         * {@link Expression} objects for the best solutions found.
+         */
+        PRIMITIVE((s, c, p) -> new PrimitiveSearch(s.target, s.numbers, c, p).find()),
+        /**
+         * As PRIMITIVE, but searches the solutions that use 1, 2, ... source numbers in turn, and
+         * stops after the first number for which there is an exact solution. Finds exactly the same
+         * solution as PRIMITIVE.
+         */
+        DEEPENING((s, c, p) -> new PrimitiveSearch(s.target, s.numbers, c, p).findByDeepening()),
+        /**
+         * Calculates the values that can be made from each subset of the source numbers once,
+         * keeping only the best expression for each value. Finds a solution which is ranked the
+         * same as that found by the other strategies, but which may not be the same one. No
+         * solution is reported as the best so far until all the values have been calculated.
+         */
+        SUBSETS((s, c, p) -> new SubsetSearch(s.numbers, c).solve(s.target)),
+        /**
+         * As SUBSETS, but works backwards from the target number: the subsets of each size are
+         * searched for an exact solution by applying the inverse of each operator to the target
+         * and the values of a smaller subset, and looking up the result among the values of the
+         * rest of the subset, before their own values are calculated. This is much faster when
+         * there is an exact solution, and a little slower when there is not. Finds a solution
+         * which is ranked the same as that found by the other strategies.
+         */
+        BACKWARD((s, c, p) -> new SubsetSearch(s.numbers, c).solveBackward(s.target));
+
+        private final Search search;
+
+        private Strategy(Search search)
+        {
+            this.search = search;
+        }
+    }
+
+    /**
+     * A search for the best solution, which can be cancelled by the specified cancellation, and
+     * which passes each solution that is better than the best it has found so far to the specified
+     * consumer. Solutions may be passed to the consumer by any of the parallel branches of the
+     * search.
+     */
+    @FunctionalInterface
+    private static interface Search
+    {
+        Expression find(Solver solver, Cancellation cancellation, Consumer<Expression> progress);
+    }
+
+    /**
+     * The result of a search with a time budget: the best solution found within the budget (or
+     * null if none was found), and whether the search completed. If it completed, the solution is
+     * the same as would be found without a time budget.
+     */
+    public static class AnytimeResult
+    {
+        public final Expression solution;
+        public final boolean complete;
+
+        public AnytimeResult(Expression solution, boolean complete)
+        {
+            this.solution = solution;
+            this.complete = complete;
+        }
+    }
+
+    /**
+     * The result of a search with a memory budget: the best solution, the strategy which found it
+     * (or null if it was looked up in the answer table), and the greatest number of bytes of
+     * storage retained by the search, or by any earlier attempt which exceeded the budget.
+     */
+    public static class MemoryBoundedResult
+    {
+        public final Expression solution;
+        public final Strategy strategy;
+        public final long peakRetainedBytes;
+
+        public MemoryBoundedResult(Expression solution, Strategy strategy, long peakRetainedBytes)
+        {
+            this.solution = solution;
+            this.strategy = strategy;
+            this.peakRetainedBytes = peakRetainedBytes;
+        }
+    }
+
+    static interface Priority
     {
         public static int LOW = 0;
         public static int HIGH = 1;
@@ -261,9 +692,13 @@ public class Solver
         public final int value;
         public final int difference;
         public final int[] numbers;
+        // The operator applied to make the expression, and its operands, or null if it is a
+        // single number.
+        final Operator operator;
+        final Expression leftOperand;
+        final Expression rightOperand;
         private final int priority;
-        private final int parentheses;
-        private final Supplier<String> toString;
+        final int parentheses;
 
         public Expression(int number, int target)
         {
@@ -271,9 +706,11 @@ public class Solver
             difference = Math.abs(target - value);
             numbers = IntStream.of(number)
                     .toArray();
+            operator = null;
+            leftOperand = null;
+            rightOperand = null;
             priority = Priority.ATOMIC;
             parentheses = 0;
-            toString = () -> String.format("%d", number);
         }
 
         public Expression(Expression leftOperand, Operator operator, Expression rightOperand,
@@ -284,17 +721,24 @@ public class Solver
             numbers = IntStream
                     .concat(IntStream.of(leftOperand.numbers), IntStream.of(rightOperand.numbers))
                     .toArray();
+            this.operator = operator;
+            this.leftOperand = leftOperand;
+            this.rightOperand = rightOperand;
             priority = operator.priority;
-            var parenthesiseLeft = leftOperand.priority < operator.priority;
-            var parenthesiseRight = rightOperand.priority < operator.priority
-                    || (rightOperand.priority == operator.priority && !operator.commutative);
-            parentheses = (int) (Stream.of(parenthesiseLeft, parenthesiseRight)
+            parentheses = (int) (Stream.of(parenthesiseLeft(), parenthesiseRight())
                     .filter(Boolean::booleanValue)
                     .count()) + leftOperand.parentheses + rightOperand.parentheses;
-            toString = () -> Stream
-                    .of(parenthesisedIfNecessary(leftOperand, parenthesiseLeft), operator.symbol,
-                            parenthesisedIfNecessary(rightOperand, parenthesiseRight))
-                    .collect(Collectors.joining(" "));
+        }
+
+        private boolean parenthesiseLeft()
+        {
+            return leftOperand.priority < operator.priority;
+        }
+
+        private boolean parenthesiseRight()
+        {
+            return rightOperand.priority < operator.priority
+                    || (rightOperand.priority == operator.priority && !operator.commutative);
         }
 
         private static String parenthesisedIfNecessary(Expression expr, boolean parenthesise)
@@ -305,7 +749,12 @@ public class Solver
         @Override
         public String toString()
         {
-            return toString.get();
+            if (operator == null)
+                return String.format("%d", value);
+            return Stream
+                    .of(parenthesisedIfNecessary(leftOperand, parenthesiseLeft()), operator.symbol,
+                            parenthesisedIfNecessary(rightOperand, parenthesiseRight()))
+                    .collect(Collectors.joining(" "));
         }
     }
 
@@ -348,69 +797,214 @@ public class Solver
 
     private Combiner addCombiner(Expression expr1)
     {
-        return expr2 -> new Expression(expr1, Operator.ADD, expr2, target);
+        return expr2 ->
+            {
+                if (!canAdd(expr1.value, expr2.value))
+                {
+                    SolverMetrics.REJECTIONS[Operator.ADD.ordinal()].increment();
+                    SolverEvents.rejected(Operator.ADD, expr1.value, expr2.value);
+                    return null;
+                }
+                return new Expression(expr1, Operator.ADD, expr2, target);
+            };
     }
 
     private Combiner subtractCombiner(Expression expr1)
     {
-        if (expr1.value < 3)
+        if (!canSubtractFrom(expr1.value))
             return null;
         return expr2 ->
             {
-                if (expr1.value <= expr2.value || expr1.value == expr2.value * 2)
+                if (!canSubtract(expr1.value, expr2.value))
+                {
+                    SolverMetrics.REJECTIONS[Operator.SUBTRACT.ordinal()].increment();
+                    SolverEvents.rejected(Operator.SUBTRACT, expr1.value, expr2.value);
                     return null;
+                }
                 return new Expression(expr1, Operator.SUBTRACT, expr2, target);
             };
     }
 
     private Combiner multiplyCombiner(Expression expr1)
     {
-        if (expr1.value == 1)
+        if (!canMultiply(expr1.value))
             return null;
         return expr2 ->
             {
-                if (expr2.value == 1)
+                if (!canMultiply(expr1.value, expr2.value))
+                {
+                    SolverMetrics.REJECTIONS[Operator.MULTIPLY.ordinal()].increment();
+                    SolverEvents.rejected(Operator.MULTIPLY, expr1.value, expr2.value);
                     return null;
+                }
                 return new Expression(expr1, Operator.MULTIPLY, expr2, target);
             };
     }
 
     private Combiner divideCombiner(Expression expr1)
     {
-        if (expr1.value == 1)
+        if (!canDivide(expr1.value))
             return null;
         return expr2 ->
             {
-                if (expr2.value == 1 || expr1.value % expr2.value != 0
-                        || expr1.value == expr2.value * expr2.value)
+                if (!canDivide(expr1.value, expr2.value))
+                {
+                    SolverMetrics.REJECTIONS[Operator.DIVIDE.ordinal()].increment();
+                    SolverEvents.rejected(Operator.DIVIDE, expr1.value, expr2.value);
                     return null;
+                }
                 return new Expression(expr1, Operator.DIVIDE, expr2, target);
             };
     }
 
+    /*
+     * The pruning rules applied by the combiners. Each operator has a rule which is applied to the
+     * left operand alone, so that it can be applied once for all the right operands it is combined
+     * with, and a rule which is applied to both operands (and which assumes that the left operand
+     * has passed the first rule). The rules reject combinations which either are invalid, or
+     * produce a value which can be produced by a simpler expression using the same numbers.
+     * Combinations whose value would overflow an int are rejected, which can only happen in games
+     * with more source numbers than the standard rules allow.
+     */
+
+    static boolean canAdd(int a, int b)
+    {
+        return a <= Integer.MAX_VALUE - b;
+    }
+
+    static boolean canSubtractFrom(int a)
+    {
+        return a >= 3;
+    }
+
+    static boolean canSubtract(int a, int b)
+    {
+        return a > b && a != b * 2L;
+    }
+
+    static boolean canMultiply(int a)
+    {
+        return a != 1;
+    }
+
+    static boolean canMultiply(int a, int b)
+    {
+        return b != 1 && (long) a * b <= Integer.MAX_VALUE;
+    }
+
+    static boolean canDivide(int a)
+    {
+        return a != 1;
+    }
+
+    static boolean canDivide(int a, int b)
+    {
+        return b != 1 && a % b == 0 && a != (long) b * b;
+    }
+
+    /**
+     * Gets the name of the rule by which the specified operator is not applied to a left operand
+     * with the specified value, whatever the right operand; the left operand must be one that is
+     * rejected by the rule for the operator.
+     */
+    static String rejectionRule(Operator operator, int a)
+    {
+        // Subtracting from 1 or 2 makes a value that is not positive, or is equal to the right
+        // operand.
+        return operator == Operator.SUBTRACT ? "small-left" : "identity";
+    }
+
+    /**
+     * Gets the name of the rule by which the specified operator is not applied to the specified
+     * operands; they must be ones that are rejected by the rule for the operator.
+     */
+    static String rejectionRule(Operator operator, int a, int b)
+    {
+        switch (operator)
+        {
+        case SUBTRACT:
+            return a <= b ? "not-positive" : "equals-right";
+        case MULTIPLY:
+            return b == 1 ? "identity" : "overflow";
+        case DIVIDE:
+            return b == 1 ? "identity" : a % b != 0 ? "indivisible" : "equals-right";
+        default:
+            return "overflow";
+        }
+    }
+
     private Stream<CombinerCreator> combiners()
     {
         return Stream.of(this::addCombiner, this::subtractCombiner, this::multiplyCombiner,
                 this::divideCombiner);
     }
 
-    private Stream<Combiner> combinersUsing(Expression expr1)
+    /*
+     * The canonical form rules, which prune combinations that produce an expression equivalent to
+     * one that comes earlier in the search order: one with the same value, made from the same
+     * numbers, with the same number of parentheses. Pruning them cannot change the solution found,
+     * since the best solution always comes first among the expressions equivalent to it.
+     *
+     * A commutative operator is only applied to two adjacent ranges of a permutation if the
+     * permutation comes before the one in which the ranges are swapped, which contains the same
+     * combination with its operands the other way round. And a commutative operator is not
+     * applied to a left operand made by the same operator, as (a + b) + c is equivalent to
+     * a + (b + c), which is made from the same permutation by an earlier split; so a chain of
+     * additions or multiplications is only made in one grouping.
+     */
+
+    static boolean isCommutativePruned(Operator operator, boolean commutable)
+    {
+        return operator.commutative && !commutable;
+    }
+
+    static boolean isAssociativePruned(Operator operator, Operator leftOperator)
+    {
+        return operator.commutative && operator == leftOperator;
+    }
+
+    private Stream<Combiner> combinersUsing(Expression expr1, int rightOperandCount,
+            boolean commutable)
     {
-        return combiners().map(c -> c.apply(expr1))
+        var combiners = combiners().map(c -> c.apply(expr1))
+                .toArray(Combiner[]::new);
+        // The combiners are in the same order as the operators, and if there is no combiner for
+        // an operator, that operator cannot be applied to any of the right operands.
+        var operators = Operator.values();
+        for (int i = 0; i < combiners.length; i++)
+            if (combiners[i] == null)
+            {
+                SolverMetrics.REJECTIONS[i].add(rightOperandCount);
+                SolverEvents.rejected(operators[i], expr1.value, (long) rightOperandCount);
+            }
+            else if (isCommutativePruned(operators[i], commutable))
+            {
+                combiners[i] = null;
+                SolverMetrics.COMMUTATIVE_PRUNED.add(rightOperandCount);
+                SolverEvents.pruned("commutative", operators[i], expr1.value, rightOperandCount);
+            }
+            else if (isAssociativePruned(operators[i], expr1.operator))
+            {
+                combiners[i] = null;
+                SolverMetrics.ASSOCIATIVE_PRUNED.add(rightOperandCount);
+                SolverEvents.pruned("associative", operators[i], expr1.value, rightOperandCount);
+            }
+        return Stream.of(combiners)
                 .filter(Objects::nonNull);
     }
 
     private static class TimedResult<T>
     {
         public final T result;
+        public final long timeToRunNs;
         public final long timeToRunMs;
 
         public TimedResult(Supplier<T> process)
         {
-            var start = Instant.now();
+            var start = System.nanoTime();
             this.result = process.get();
-            var end = Instant.now();
-            this.timeToRunMs = end.toEpochMilli() - start.toEpochMilli();
+            this.timeToRunNs = System.nanoTime() - start;
+            this.timeToRunMs = TimeUnit.NANOSECONDS.toMillis(timeToRunNs);
         }
     }
 }
@@ -0,0 +1,286 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Operator;
+
+/**
+ * The Java Flight Recorder events emitted by the solver, which are recorded when a recording is
+ * running with the events enabled (they are enabled by the default settings), for instance when
+ * the JVM is started with {@code -XX:StartFlightRecording}, or by {@code jcmd <pid> JFR.start}.
+ *
+ * When no recording is running, emitting an event costs little more than checking that it is not
+ * enabled. Pruning decisions are far too frequent to record individually, so only a random sample
+ * of them is recorded.
+ */
+final class SolverEvents
+{
+    /**
+     * The mean number of pruning decisions represented by each {@link PruneEvent}.
+     */
+    static final int PRUNE_SAMPLE_INTERVAL = 1024;
+
+    private SolverEvents()
+    {
+    }
+
+    @Name("uk.org.thehickses.countdown.Solve")
+    @Label("Solve")
+    @Category("Countdown")
+    @Description("The solving of a game")
+    @StackTrace(false)
+    static class SolveEvent extends Event
+    {
+        @Label("Target")
+        int target;
+
+        @Label("Numbers")
+        String numbers;
+
+        @Label("Strategy")
+        @Description("The strategy used, or TABLE if the solution was looked up in an answer "
+                + "table")
+        String strategy;
+
+        @Label("Difference")
+        @Description("The difference between the solution and the target, or -1 if there is no "
+                + "solution")
+        int difference;
+
+        @Label("Numbers Used")
+        int numbersUsed;
+
+        @Label("Cancelled")
+        boolean cancelled;
+
+        static SolveEvent start(int target, int[] numbers, String strategy)
+        {
+            var event = new SolveEvent();
+            event.begin();
+            if (event.isEnabled())
+            {
+                event.target = target;
+                event.numbers = Arrays.toString(numbers);
+                event.strategy = strategy;
+            }
+            return event;
+        }
+
+        /**
+         * Records the end of the solve; the solution is null if there is none, or if the solve was
+         * cancelled.
+         */
+        void end(Expression solution, boolean cancelled)
+        {
+            end();
+            if (!shouldCommit())
+                return;
+            difference = solution == null ? -1 : solution.difference;
+            numbersUsed = solution == null ? 0 : solution.numbers.length;
+            this.cancelled = cancelled;
+            commit();
+        }
+    }
+
+    @Name("uk.org.thehickses.countdown.Phase")
+    @Label("Search Phase")
+    @Category("Countdown")
+    @Description("A phase of a search; the phases of the parallel searches overlap")
+    @StackTrace(false)
+    static class PhaseEvent extends Event
+    {
+        @Label("Phase")
+        @Description("permute: generating one permutation, and the work items it is split into, "
+                + "enumerate: enumerating the expressions made from one permutation, reduce: "
+                + "combining the best solutions of two parts of the parallel search (STREAM); "
+                + "depth: searching the solutions that use a number of source numbers (DEEPENING); "
+                + "branch: searching the permutations that start with one source number (PRIMITIVE "
+                + "and DEEPENING); subsets: finding the canonical subsets, values: calculating the "
+                + "values of the subsets of a size, meet: searching the subsets of a size for an "
+                + "exact solution, rank: finding the best solution among the values (SUBSETS and "
+                + "BACKWARD)")
+        String phase;
+
+        @Label("Size")
+        @Description("The number of source numbers involved")
+        int size;
+
+        @Label("Count")
+        @Description("The number of expressions, values or candidate solutions produced by the "
+                + "phase, or 0 if they are not counted")
+        long count;
+
+        /**
+         * Starts an event for the specified phase, or returns null if the event is not enabled.
+         */
+        static PhaseEvent start(String phase, int size)
+        {
+            var event = new PhaseEvent();
+            if (!event.isEnabled())
+                return null;
+            event.phase = phase;
+            event.size = size;
+            event.begin();
+            return event;
+        }
+
+        /**
+         * Records the end of the specified phase, which may be null if it was not started.
+         */
+        static void end(PhaseEvent event, long count)
+        {
+            if (event == null)
+                return;
+            event.end();
+            if (!event.shouldCommit())
+                return;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    @Name("uk.org.thehickses.countdown.Prune")
+    @Label("Pruning Decision")
+    @Category("Countdown")
+    @Description("A sample of the decisions to prune combinations, by the canonical form rules "
+            + "or by the rules on the values of the operands")
+    @StackTrace(false)
+    static class PruneEvent extends Event
+    {
+        @Label("Rule")
+        @Description("commutative or associative: a canonical form rule; small-left, "
+                + "not-positive, equals-right, identity, indivisible or overflow: a rule on the "
+                + "values of the operands (see Solver.canSubtract and the other rules)")
+        String rule;
+
+        @Label("Operator")
+        String operator;
+
+        @Label("Left Operand")
+        int leftOperand;
+
+        @Label("Right Operand")
+        @Description("The value of the right operand, or -1 if the decision applies to all the "
+                + "right operands")
+        int rightOperand;
+
+        @Label("Combinations")
+        @Description("The number of combinations pruned by the decision")
+        long combinations;
+
+        @Label("Sample Interval")
+        @Description("The mean number of decisions represented by each recorded decision")
+        int sampleInterval;
+    }
+
+    /**
+     * Records a decision to prune all the combinations of an operator applied to a left operand
+     * with the specified value, if the decision is chosen for the sample.
+     */
+    static void pruned(String rule, Operator operator, int leftOperand, long combinations)
+    {
+        if (ThreadLocalRandom.current()
+                .nextInt(PRUNE_SAMPLE_INTERVAL) == 0)
+            recordPruned(rule, operator, leftOperand, -1, combinations);
+    }
+
+    /**
+     * Records a decision to reject all the combinations of an operator applied to a left operand
+     * with the specified value, by the rule on the left operand, if the decision is chosen for
+     * the sample.
+     */
+    static void rejected(Operator operator, int leftOperand, long combinations)
+    {
+        if (ThreadLocalRandom.current()
+                .nextInt(PRUNE_SAMPLE_INTERVAL) == 0)
+            recordPruned(Solver.rejectionRule(operator, leftOperand), operator, leftOperand, -1,
+                    combinations);
+    }
+
+    /**
+     * Records a decision to reject the combination of an operator with the specified operands, by
+     * the rule on both operands, if the decision is chosen for the sample.
+     */
+    static void rejected(Operator operator, int leftOperand, int rightOperand)
+    {
+        if (ThreadLocalRandom.current()
+                .nextInt(PRUNE_SAMPLE_INTERVAL) == 0)
+            recordPruned(Solver.rejectionRule(operator, leftOperand, rightOperand), operator,
+                    leftOperand, rightOperand, 1);
+    }
+
+    private static void recordPruned(String rule, Operator operator, int leftOperand,
+            int rightOperand, long combinations)
+    {
+        var event = new PruneEvent();
+        if (!event.isEnabled())
+            return;
+        event.rule = rule;
+        event.operator = operator.name();
+        event.leftOperand = leftOperand;
+        event.rightOperand = rightOperand;
+        event.combinations = combinations;
+        event.sampleInterval = PRUNE_SAMPLE_INTERVAL;
+        event.commit();
+    }
+
+    /**
+     * A sampler of pruning decisions for use by a single thread, which chooses the decisions for
+     * the sample by counting down a random number of decisions, rather than by drawing a random
+     * number for every decision, so that it can be used in the innermost loop of a search.
+     */
+    static class PruneSampler
+    {
+        private int countdown = nextCountdown();
+
+        void pruned(String rule, Operator operator, int leftOperand, long combinations)
+        {
+            if (sampled())
+                recordPruned(rule, operator, leftOperand, -1, combinations);
+        }
+
+        /**
+         * As {@link SolverEvents#rejected(Operator, int, long)}; the rule is only found if the
+         * decision is chosen.
+         */
+        void rejected(Operator operator, int leftOperand, long combinations)
+        {
+            if (sampled())
+                recordPruned(Solver.rejectionRule(operator, leftOperand), operator, leftOperand,
+                        -1, combinations);
+        }
+
+        /**
+         * As {@link SolverEvents#rejected(Operator, int, int)}; the rule is only found if the
+         * decision is chosen.
+         */
+        void rejected(Operator operator, int leftOperand, int rightOperand)
+        {
+            if (sampled())
+                recordPruned(Solver.rejectionRule(operator, leftOperand, rightOperand), operator,
+                        leftOperand, rightOperand, 1);
+        }
+
+        private boolean sampled()
+        {
+            if (--countdown > 0)
+                return false;
+            countdown = nextCountdown();
+            return true;
+        }
+
+        private static int nextCountdown()
+        {
+            return 1 + ThreadLocalRandom.current()
+                    .nextInt(2 * PRUNE_SAMPLE_INTERVAL);
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package uk.org.thehickses.countdown;
+
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Runs searches with admission control and a deadline for each search.
+ *
+ * At most a fixed number of searches run at the same time, and at most a fixed number more wait in
+ * a queue to run; a search that is submitted when the queue is full is rejected. The parallel parts
+ * of each search run in a fork-join pool dedicated to this executor, rather than in the common
+ * pool. Each search is cancelled if it has not completed by its deadline, which is measured from
+ * when it was submitted, so includes any time spent waiting in the queue.
+ */
+public class SolverExecutor
+{
+    private final ThreadPoolExecutor executor;
+    private final ForkJoinPool pool;
+    // Completes each search's result when its deadline passes, if it has not completed by then.
+    private final ScheduledThreadPoolExecutor timer;
+    private final Duration deadline;
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    public SolverExecutor(int maxConcurrentSolves, int queueCapacity, int parallelism,
+            Duration deadline)
+    {
+        var threadCount = new AtomicInteger();
+        BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<>()
+                : new ArrayBlockingQueue<>(queueCapacity);
+        executor = new ThreadPoolExecutor(maxConcurrentSolves, maxConcurrentSolves, 0,
+                TimeUnit.MILLISECONDS, queue, r ->
+                    {
+                        var thread = new Thread(r, "solver-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        pool = new ForkJoinPool(parallelism);
+        timer = new ScheduledThreadPoolExecutor(1, r ->
+            {
+                var thread = new Thread(r, "solver-deadlines");
+                thread.setDaemon(true);
+                return thread;
+            });
+        timer.setRemoveOnCancelPolicy(true);
+        this.deadline = deadline;
+    }
+
+    /**
+     * Runs the specified search (usually for a solution, but it can be any search which is done in
+     * the same way), passing it a cancellation which it must check periodically, and waits for its
+     * result.
+     *
+     * @throws RejectedExecutionException
+     *             if the maximum number of searches are already running and waiting.
+     * @throws CancellationException
+     *             if the search did not complete by its deadline.
+     */
+    public <T> T solve(Function<Cancellation, T> search)
+    {
+        var result = submit(search);
+        try
+        {
+            return result.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread()
+                    .interrupt();
+            result.cancel(true);
+            throw new CancellationException("Interrupted while waiting for search");
+        }
+        catch (ExecutionException ex)
+        {
+            var cause = ex.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Runs the specified search as {@link #solve(Function)} does, but without waiting for its
+     * result; the returned future is completed with the result, or with the exception that
+     * {@link #solve(Function)} would throw. No thread waits for the search while it is queued, and
+     * while it runs only the executor thread which started it waits for its parallel parts.
+     *
+     * Cancelling the returned future cancels the search, and removes it from the queue if it has
+     * not started. If it has started, the future is completed at once, but the search keeps its
+     * place among those running until it stops, which it does when it next checks its
+     * cancellation, so that no more than the maximum number of searches run at the same time.
+     */
+    public <T> CompletableFuture<T> submit(Function<Cancellation, T> search)
+    {
+        var cancellation = Cancellation.withDeadline(deadline);
+        var result = new CompletableFuture<T>();
+        Future<?> task;
+        try
+        {
+            task = executor.submit(() -> run(search, cancellation, result));
+        }
+        catch (RejectedExecutionException ex)
+        {
+            rejections.increment();
+            result.completeExceptionally(
+                    new RejectedExecutionException("Too many searches in progress", ex));
+            return result;
+        }
+        var timeout = timer.schedule(() -> fail(result,
+                new CancellationException("Search did not complete within " + deadline)),
+                cancellation.getRemaining()
+                        .toNanos(),
+                TimeUnit.NANOSECONDS);
+        result.whenComplete((value, ex) ->
+            {
+                timeout.cancel(false);
+                if (ex != null)
+                {
+                    cancellation.cancel();
+                    task.cancel(true);
+                    executor.purge();
+                }
+            });
+        return result;
+    }
+
+    private <T> void run(Function<Cancellation, T> search, Cancellation cancellation,
+            CompletableFuture<T> result)
+    {
+        var interrupted = false;
+        try
+        {
+            var task = pool.submit(() -> search.apply(cancellation));
+            while (true)
+            {
+                try
+                {
+                    result.complete(task.get());
+                    return;
+                }
+                catch (InterruptedException ex)
+                {
+                    // The search has been cancelled, and the result completed by whoever
+                    // cancelled it; it is still waited for, so that this thread is not given
+                    // another search while it is stopping.
+                    interrupted = true;
+                }
+            }
+        }
+        catch (ExecutionException ex)
+        {
+            fail(result, ex.getCause());
+        }
+        catch (RuntimeException | Error ex)
+        {
+            fail(result, ex);
+        }
+        finally
+        {
+            if (interrupted)
+                Thread.currentThread()
+                        .interrupt();
+        }
+    }
+
+    private void fail(CompletableFuture<?> result, Throwable ex)
+    {
+        if (!(ex instanceof CancellationException))
+        {
+            result.completeExceptionally(ex);
+            return;
+        }
+        // The timeout is counted before the result is completed, so that it has been counted by
+        // the time anyone waiting for the result sees it; it is uncounted if the result was
+        // completed by someone else.
+        timeouts.increment();
+        if (!result.completeExceptionally(ex))
+            timeouts.decrement();
+    }
+
+    public Duration getDeadline()
+    {
+        return deadline;
+    }
+
+    /**
+     * Gets the number of searches waiting to run.
+     */
+    public int getQueueDepth()
+    {
+        return executor.getQueue()
+                .size();
+    }
+
+    /**
+     * Gets the number of searches running.
+     */
+    public int getActiveCount()
+    {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Gets the number of searches that have been rejected because the queue was full.
+     */
+    public long getRejections()
+    {
+        return rejections.sum();
+    }
+
+    /**
+     * Gets the number of searches that have been cancelled because they did not complete by their
+     * deadline.
+     */
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        pool.shutdownNow();
+        timer.shutdownNow();
+    }
+}
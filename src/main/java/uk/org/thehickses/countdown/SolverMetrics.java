@@ -0,0 +1,119 @@
+package uk.org.thehickses.countdown;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import uk.org.thehickses.countdown.Solver.Operator;
+
+/**
+ * The metrics recorded by the solver, which are registered in the global Micrometer registry (and
+ * so are published by any registry that is added to it, such as those configured by Spring Boot
+ * Actuator).
+ *
+ * The counters are updated by the searches, so to keep the cost of counting low, they are striped
+ * adders which are published as function counters. The primitive searches count in plain fields
+ * of their own, and add them to the adders when each branch of the search finishes.
+ */
+final class SolverMetrics
+{
+    static final Timer SOLVE_TIME = Timer.builder("countdown.solve")
+            .description("Time taken to solve a game")
+            .publishPercentiles(0.5, 0.9, 0.95, 0.99)
+            .publishPercentileHistogram()
+            .register(Metrics.globalRegistry);
+
+    static final LongAdder EXPRESSIONS = counter("countdown.expressions.generated",
+            "Expressions generated by combining two other expressions");
+
+    /**
+     * The numbers of candidate combinations of two expressions rejected by the pruning rules of
+     * each operator, indexed by the ordinal of the operator.
+     */
+    static final LongAdder[] REJECTIONS = { rejections(Operator.ADD),
+            rejections(Operator.SUBTRACT), rejections(Operator.MULTIPLY),
+            rejections(Operator.DIVIDE) };
+
+    /**
+     * The numbers of candidate combinations of two expressions pruned by the canonical form rules,
+     * because they are equivalent to combinations with their operands the other way round, or
+     * grouped the other way, that come earlier in the search.
+     */
+    static final LongAdder COMMUTATIVE_PRUNED = pruned("commutative");
+    static final LongAdder ASSOCIATIVE_PRUNED = pruned("associative");
+
+    static final LongAdder CANDIDATES = counter("countdown.candidates",
+            "Candidate solutions which differ from the target number by 10 or less");
+
+    static final LongAdder UNSOLVED = counter("countdown.solves.unsolved",
+            "Games for which no solution was found");
+
+    /**
+     * The greatest number of bytes of storage retained by each search with a memory budget (see
+     * {@link MemoryBudget}).
+     */
+    static final DistributionSummary RETAINED = DistributionSummary
+            .builder("countdown.solve.retained")
+            .description("Peak storage retained by a search with a memory budget")
+            .baseUnit("bytes")
+            .register(Metrics.globalRegistry);
+
+    private SolverMetrics()
+    {
+    }
+
+    private static LongAdder rejections(Operator operator)
+    {
+        return counter("countdown.combinations.rejected",
+                "Combinations of two expressions rejected by the pruning rules", "operator",
+                operator.name()
+                        .toLowerCase());
+    }
+
+    private static LongAdder pruned(String rule)
+    {
+        return counter("countdown.combinations.pruned",
+                "Combinations of two expressions pruned as equivalent to earlier ones", "rule",
+                rule);
+    }
+
+    private static LongAdder counter(String name, String description, String... tags)
+    {
+        var adder = new LongAdder();
+        FunctionCounter.builder(name, adder, LongAdder::sum)
+                .description(description)
+                .tags(tags)
+                .register(Metrics.globalRegistry);
+        return adder;
+    }
+
+    static void recordSolve(long timeToRunNs, boolean solved)
+    {
+        SOLVE_TIME.record(timeToRunNs, TimeUnit.NANOSECONDS);
+        if (!solved)
+            UNSOLVED.increment();
+    }
+
+    /**
+     * Adds counts accumulated by a search, or a part of one, to the counters.
+     */
+    static void record(long expressions, long[] rejections, long candidates)
+    {
+        EXPRESSIONS.add(expressions);
+        for (int i = 0; i < rejections.length; i++)
+            REJECTIONS[i].add(rejections[i]);
+        CANDIDATES.add(candidates);
+    }
+
+    /**
+     * Adds counts of combinations pruned by the canonical form rules to the counters.
+     */
+    static void recordPruned(long commutative, long associative)
+    {
+        COMMUTATIVE_PRUNED.add(commutative);
+        ASSOCIATIVE_PRUNED.add(associative);
+    }
+}
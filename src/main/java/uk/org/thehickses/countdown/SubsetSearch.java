@@ -0,0 +1,656 @@
+package uk.org.thehickses.countdown;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import org.apache.commons.lang3.ArrayUtils;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.Solver.Operator;
+import uk.org.thehickses.countdown.Solver.Priority;
+
+/**
+ * A search for the best solution which, rather than enumerating the permutations of the source
+ * numbers, calculates once for each subset of the source numbers the set of values that can be
+ * made from exactly the numbers in that subset. The values for a subset are calculated by
+ * combining the values of every pair of disjoint subsets whose union is that subset, subject to
+ * the same pruning rules as the other searches. The values of the pairs are calculated, and the
+ * pruning rules applied, by a {@link CombinationKernel}, which may do so for a number of pairs at
+ * once.
+ *
+ * For each value that can be made from a subset, only the expression with the fewest pairs of
+ * parentheses is kept. Whether an expression needs parentheses when it is used as an operand
+ * depends on its priority, so one expression is kept for each combination of value and priority;
+ * this means that the solution found is always ranked the same as the one found by the other
+ * searches, though where two solutions are ranked the same it may not be the same one.
+ *
+ * Where the source numbers include duplicates, subsets which contain the same numbers are
+ * equivalent, and only one of them (the canonical subset, which uses the first occurrences of each
+ * duplicated number) is calculated.
+ */
+class SubsetSearch
+{
+    private static final Operator[] OPERATORS = Operator.values();
+    private static final int ADD = Operator.ADD.ordinal();
+    private static final int SUBTRACT = Operator.SUBTRACT.ordinal();
+    private static final int MULTIPLY = Operator.MULTIPLY.ordinal();
+    private static final int DIVIDE = Operator.DIVIDE.ordinal();
+    static final int NUMBER = -1;
+    static final long NO_SOLUTION = -1;
+
+    private final int[] numbers;
+    private final int[] canonical;
+    private final Subset[] subsets;
+    private Cancellation cancellation;
+    private final CombinationKernel kernel;
+    private final MemoryBudget budget;
+    // The size of the largest subsets whose values have been calculated.
+    private int evaluatedSize = 0;
+
+    SubsetSearch(int[] numbers, Cancellation cancellation)
+    {
+        this(numbers, cancellation, CombinationKernel.get());
+    }
+
+    /**
+     * Creates a search whose storage for the values of the subsets is limited by the specified
+     * budget; if it would be exceeded, the search fails with
+     * {@link MemoryBudget.ExceededException}. The storage is retained until the search is
+     * discarded.
+     */
+    SubsetSearch(int[] numbers, Cancellation cancellation, MemoryBudget budget)
+    {
+        this(numbers, cancellation, CombinationKernel.get(), budget);
+    }
+
+    SubsetSearch(int[] numbers, Cancellation cancellation, CombinationKernel kernel)
+    {
+        this(numbers, cancellation, kernel, MemoryBudget.UNLIMITED);
+    }
+
+    private SubsetSearch(int[] numbers, Cancellation cancellation, CombinationKernel kernel,
+            MemoryBudget budget)
+    {
+        this.numbers = numbers;
+        this.cancellation = cancellation;
+        this.kernel = kernel;
+        this.budget = budget;
+        var subsetCount = 1 << numbers.length;
+        // The canonical masks, and the references to the subsets.
+        budget.reserve((long) subsetCount * Integer.BYTES * 2);
+        var event = SolverEvents.PhaseEvent.start("subsets", numbers.length);
+        canonical = IntStream.range(0, subsetCount)
+                .map(this::canonicalise)
+                .toArray();
+        SolverEvents.PhaseEvent.end(event, subsetCount);
+        subsets = new Subset[subsetCount];
+    }
+
+    int[] getNumbers()
+    {
+        return numbers;
+    }
+
+    /**
+     * Sets the cancellation which is checked by the rest of the search, for a search which is
+     * continued on behalf of more than one caller (see {@link IncrementalSolver}).
+     */
+    void setCancellation(Cancellation cancellation)
+    {
+        this.cancellation = cancellation;
+    }
+
+    /**
+     * Gets a search whose source numbers are those of this one followed by the specified number.
+     * The subsets of this search have the same masks, and the same canonical subsets, in the new
+     * one, so those already calculated are shared with it rather than calculated again; only the
+     * subsets which include the new number remain to be calculated. This search should then be
+     * discarded, since its storage is counted as the new one's.
+     */
+    SubsetSearch withNumber(int number)
+    {
+        var result = new SubsetSearch(ArrayUtils.add(numbers, number), cancellation, kernel,
+                budget);
+        System.arraycopy(subsets, 0, result.subsets, 0, subsets.length);
+        budget.release((long) subsets.length * Integer.BYTES * 2);
+        return result;
+    }
+
+    /**
+     * Calculates the values of all the subsets of the next size up from those already calculated,
+     * apart from any calculated by another search (see {@link #withNumber(int)}). Each subset is
+     * made only from smaller subsets, so the subsets of the same size can be calculated in
+     * parallel.
+     */
+    private void evaluateNextSize()
+    {
+        var size = ++evaluatedSize;
+        var event = SolverEvents.PhaseEvent.start("values", size);
+        IntStream.range(1, subsets.length)
+                .filter(m -> Integer.bitCount(m) == size && canonical[m] == m
+                        && subsets[m] == null)
+                .parallel()
+                .forEach(m -> subsets[m] = evaluate(m));
+        if (event != null)
+            SolverEvents.PhaseEvent.end(event, IntStream.range(1, subsets.length)
+                    .filter(m -> Integer.bitCount(m) == size && subsets[m] != null)
+                    .mapToLong(m -> subsets[m].size)
+                    .sum());
+    }
+
+    /**
+     * Calculates the values of all the subsets which have not yet been calculated.
+     */
+    void evaluateAll()
+    {
+        while (evaluatedSize < numbers.length)
+            evaluateNextSize();
+    }
+
+    /**
+     * Gets whether any of the subsets of the size most recently calculated can make the specified
+     * value.
+     */
+    private boolean canMakeWithLatestSize(int value)
+    {
+        return IntStream.range(1, subsets.length)
+                .filter(m -> Integer.bitCount(m) == evaluatedSize && subsets[m] != null)
+                .anyMatch(m -> IntStream.of(Priority.LOW, Priority.HIGH, Priority.ATOMIC)
+                        .anyMatch(p -> subsets[m].indexOf(value, p) >= 0));
+    }
+
+    private int canonicalise(int mask)
+    {
+        var result = 0;
+        for (int i = 0; i < numbers.length; i++)
+        {
+            if ((mask & (1 << i)) == 0)
+                continue;
+            var j = 0;
+            while (numbers[j] != numbers[i] || (result & (1 << j)) != 0)
+                j++;
+            result |= 1 << j;
+        }
+        return result;
+    }
+
+    /**
+     * Gets the best solution for the specified target number, ranked in the same way as by
+     * {@link Solver}. The subsets are calculated in ascending order of size, and once there is an
+     * exact solution, no larger subsets are calculated, since they cannot make a better one. This
+     * makes the search practical for games with more than 6 source numbers, for which there is
+     * usually an exact solution that uses far fewer numbers than are available.
+     */
+    Expression solve(int target)
+    {
+        while (evaluatedSize < numbers.length
+                && (evaluatedSize == 0 || !canMakeWithLatestSize(target)))
+            evaluateNextSize();
+        var best = rank(target, target)[0];
+        return best == NO_SOLUTION ? null : expression(mask(best), index(best), target);
+    }
+
+    /**
+     * Gets the best solution for the specified target number, ranked in the same way as by
+     * {@link #solve(int)}, by working backwards from the target. Before the values of the subsets
+     * of each size are calculated, the subsets of that size are searched for an exact solution
+     * without calculating their values: for each pair of disjoint subsets that make up a subset,
+     * each value of the one with fewer values is combined with the target by the inverse of each
+     * operator, giving the value that the other one would need to make, which is looked up in its
+     * hash table. This meets the values calculated forwards from the source numbers in the middle,
+     * and means that the values of the subsets which can make the target are never calculated,
+     * which is where most of the work of a forward search is done.
+     *
+     * If there is no exact solution, all the subsets are calculated, and the solution is found in
+     * the same way as by {@link #solve(int)}.
+     */
+    Expression solveBackward(int target)
+    {
+        do
+        {
+            if (evaluatedSize > 0)
+            {
+                var solution = meet(target, evaluatedSize + 1);
+                if (solution != null)
+                    return solution;
+            }
+            evaluateNextSize();
+        }
+        while (evaluatedSize < numbers.length && !canMakeWithLatestSize(target));
+        var best = rank(target, target)[0];
+        return best == NO_SOLUTION ? null : expression(mask(best), index(best), target);
+    }
+
+    /**
+     * Gets the exact solution with the fewest pairs of parentheses that can be made from any
+     * subset of the specified size, or null if there is none. All the smaller subsets must have
+     * been calculated.
+     */
+    private Expression meet(int target, int size)
+    {
+        var event = SolverEvents.PhaseEvent.start("meet", size);
+        var best = IntStream.range(1, subsets.length)
+                .filter(m -> Integer.bitCount(m) == size && canonical[m] == m)
+                .parallel()
+                .mapToObj(m -> meet(target, m, new Meeting()))
+                .reduce(new Meeting(), Meeting::better);
+        SolverEvents.PhaseEvent.end(event, 0);
+        if (best.parentheses == Integer.MAX_VALUE)
+            return null;
+        return new Expression(expression(best.leftMask, best.left, target),
+                OPERATORS[best.operator], expression(best.rightMask, best.right, target), target);
+    }
+
+    private Meeting meet(int target, int mask, Meeting best)
+    {
+        LongStream.iterate(mask - 1 & mask, left -> left > 0, left -> left - 1 & mask)
+                .map(left -> ((long) canonical[(int) left] << 32) | canonical[mask ^ (int) left])
+                .distinct()
+                .forEach(pair -> meet(target, (int) (pair >>> 32), (int) pair, best));
+        return best;
+    }
+
+    /**
+     * Finds the exact solutions made by applying an operator to a value of the subset with the
+     * left mask and a value of the subset with the right mask, and keeps the best in the meeting.
+     */
+    private void meet(int target, int leftMask, int rightMask, Meeting best)
+    {
+        cancellation.check();
+        var lefts = subsets[leftMask];
+        var rights = subsets[rightMask];
+        var fromLeft = lefts.size <= rights.size;
+        var known = fromLeft ? lefts : rights;
+        var other = fromLeft ? rights : lefts;
+        var matches = 0L;
+        for (int i = 0; i < known.size; i++)
+        {
+            var value = known.values[i];
+            for (int operator = 0; operator < OPERATORS.length; operator++)
+            {
+                var needed = fromLeft ? rightOperand(target, value, operator)
+                        : leftOperand(target, value, operator);
+                if (needed <= 0 || needed > Integer.MAX_VALUE)
+                    continue;
+                for (int priority = Priority.LOW; priority <= Priority.ATOMIC; priority++)
+                {
+                    var j = other.indexOf((int) needed, priority);
+                    if (j < 0)
+                        continue;
+                    var left = fromLeft ? i : j;
+                    var right = fromLeft ? j : i;
+                    if (!isValid(lefts.values[left], operator, rights.values[right]))
+                        continue;
+                    matches++;
+                    best.offer(leftMask, lefts, left, operator, rightMask, rights, right);
+                }
+            }
+        }
+        SolverMetrics.CANDIDATES.add(matches);
+    }
+
+    /**
+     * Gets the value of the right operand which, combined with the specified left operand by the
+     * specified operator, makes the target; or 0 if there is none.
+     */
+    private static long rightOperand(int target, int left, int operator)
+    {
+        if (operator == ADD)
+            return target - left;
+        if (operator == SUBTRACT)
+            return left - target;
+        if (operator == MULTIPLY)
+            return target % left == 0 ? target / left : 0;
+        return left % target == 0 ? left / target : 0;
+    }
+
+    /**
+     * Gets the value of the left operand which, combined with the specified right operand by the
+     * specified operator, makes the target; or 0 if there is none.
+     */
+    private static long leftOperand(int target, int right, int operator)
+    {
+        if (operator == ADD)
+            return target - right;
+        if (operator == SUBTRACT)
+            return (long) target + right;
+        if (operator == MULTIPLY)
+            return target % right == 0 ? target / right : 0;
+        return (long) target * right;
+    }
+
+    private static boolean isValid(int a, int operator, int b)
+    {
+        if (operator == ADD)
+            return Solver.canAdd(a, b);
+        if (operator == SUBTRACT)
+            return Solver.canSubtractFrom(a) && Solver.canSubtract(a, b);
+        if (operator == MULTIPLY)
+            return Solver.canMultiply(a) && Solver.canMultiply(a, b);
+        return Solver.canDivide(a) && Solver.canDivide(a, b);
+    }
+
+    /**
+     * The best exact solution found by meeting in the middle: the operator, and the masks of the
+     * subsets and the indices of the entries within them of its operands.
+     */
+    private static class Meeting
+    {
+        int parentheses = Integer.MAX_VALUE;
+        int operator;
+        int leftMask;
+        int left;
+        int rightMask;
+        int right;
+
+        void offer(int leftMask, Subset lefts, int left, int operator, int rightMask,
+                Subset rights, int right)
+        {
+            var op = OPERATORS[operator];
+            var parenthesiseLeft = lefts.priorities[left] < op.priority;
+            var parenthesiseRight = rights.priorities[right] < op.priority
+                    || (rights.priorities[right] == op.priority && !op.commutative);
+            var parentheses = (parenthesiseLeft ? 1 : 0) + (parenthesiseRight ? 1 : 0)
+                    + lefts.parentheses[left] + rights.parentheses[right];
+            if (parentheses >= this.parentheses)
+                return;
+            this.parentheses = parentheses;
+            this.operator = operator;
+            this.leftMask = leftMask;
+            this.left = left;
+            this.rightMask = rightMask;
+            this.right = right;
+        }
+
+        Meeting better(Meeting other)
+        {
+            return other.parentheses < parentheses ? other : this;
+        }
+    }
+
+    /**
+     * Gets the best solution for each target number in the specified range, in a single pass over
+     * the values that can be made. Each solution is returned as the mask of its subset and the
+     * index of its entry within the subset, packed into a long, which can be unpacked by
+     * {@link #mask(long)} and {@link #index(long)}; or NO_SOLUTION if there is none for that
+     * target.
+     */
+    long[] solveAll(int minTarget, int maxTarget)
+    {
+        evaluateAll();
+        return rank(minTarget, maxTarget);
+    }
+
+    /**
+     * As {@link #solveAll(int, int)}, but only considers the subsets which have been calculated.
+     */
+    private long[] rank(int minTarget, int maxTarget)
+    {
+        var event = SolverEvents.PhaseEvent.start("rank", evaluatedSize);
+        var solutions = new long[maxTarget - minTarget + 1];
+        Arrays.fill(solutions, NO_SOLUTION);
+        // The rank of each solution found so far, packed so that a better solution has a lower
+        // rank: the difference is in the most significant bits, then the number count, then the
+        // number of pairs of parentheses.
+        var ranks = new int[solutions.length];
+        Arrays.fill(ranks, Integer.MAX_VALUE);
+        var candidates = 0L;
+        for (int mask = 1; mask < subsets.length; mask++)
+        {
+            var subset = subsets[mask];
+            if (subset == null)
+                continue;
+            var count = Integer.bitCount(mask);
+            for (int i = 0; i < subset.size; i++)
+            {
+                var value = subset.values[i];
+                if (value > maxTarget + 10)
+                    continue;
+                var from = Math.max(minTarget, value - 10);
+                var to = Math.min(maxTarget, value + 10);
+                candidates += Math.max(0, to - from + 1);
+                for (int target = from; target <= to; target++)
+                {
+                    var rank = (Math.abs(target - value) << 16) | (count << 8)
+                            | subset.parentheses[i];
+                    if (rank >= ranks[target - minTarget])
+                        continue;
+                    ranks[target - minTarget] = rank;
+                    solutions[target - minTarget] = ((long) mask << 32) | i;
+                }
+            }
+        }
+        SolverMetrics.CANDIDATES.add(candidates);
+        SolverEvents.PhaseEvent.end(event, candidates);
+        return solutions;
+    }
+
+    static int mask(long solution)
+    {
+        return (int) (solution >>> 32);
+    }
+
+    static int index(long solution)
+    {
+        return (int) solution;
+    }
+
+    /**
+     * Encodes the expression for the specified entry of the specified subset as an
+     * {@link ExpressionCode}, relative to the source numbers.
+     */
+    long encode(int mask, int index)
+    {
+        return encode(mask, index, new ExpressionCode()).toCode();
+    }
+
+    private ExpressionCode encode(int mask, int index, ExpressionCode code)
+    {
+        var subset = subsets[mask];
+        var operator = subset.operators[index];
+        if (operator == NUMBER)
+            return code.number(Integer.numberOfTrailingZeros(mask));
+        var leftMask = subset.leftMasks[index];
+        encode(leftMask, subset.lefts[index], code);
+        encode(canonical[mask ^ leftMask], subset.rights[index], code);
+        return code.operator(operator);
+    }
+
+    /**
+     * Builds the expression for the specified entry of the specified subset.
+     */
+    Expression expression(int mask, int index, int target)
+    {
+        var subset = subsets[mask];
+        var operator = subset.operators[index];
+        if (operator == NUMBER)
+            return new Expression(subset.values[index], target);
+        var leftMask = subset.leftMasks[index];
+        return new Expression(expression(leftMask, subset.lefts[index], target),
+                OPERATORS[operator],
+                expression(canonical[mask ^ leftMask], subset.rights[index], target), target);
+    }
+
+    private Subset evaluate(int mask)
+    {
+        var subset = new Subset(budget);
+        if (Integer.bitCount(mask) == 1)
+        {
+            subset.add(numbers[Integer.numberOfTrailingZeros(mask)], Priority.ATOMIC, 0, NUMBER,
+                    0, 0, 0);
+            return subset;
+        }
+        // Each distinct pair of canonical subsets that make up the subset is combined once.
+        LongStream.iterate(mask - 1 & mask, left -> left > 0, left -> left - 1 & mask)
+                .map(left -> ((long) canonical[(int) left] << 32) | canonical[mask ^ (int) left])
+                .distinct()
+                .forEach(pair -> combine(subset, (int) (pair >>> 32), (int) pair));
+        return subset;
+    }
+
+    private void combine(Subset result, int leftMask, int rightMask)
+    {
+        cancellation.check();
+        var lefts = subsets[leftMask];
+        var rights = subsets[rightMask];
+        var rejections = new long[OPERATORS.length];
+        var expressionCount = result.size;
+        var values = new int[OPERATORS.length][CombinationKernel.MAX_COUNT];
+        var valid = new long[OPERATORS.length];
+        for (int left = 0; left < lefts.size; left++)
+        {
+            var a = lefts.values[left];
+            // The operators which can be applied to the left operand, as a bit for each.
+            var operators = 1 << ADD | (Solver.canSubtractFrom(a) ? 1 << SUBTRACT : 0)
+                    | (Solver.canMultiply(a) ? 1 << MULTIPLY : 0)
+                    | (Solver.canDivide(a) ? 1 << DIVIDE : 0);
+            for (int from = 0; from < rights.size; from += CombinationKernel.MAX_COUNT)
+            {
+                var count = Math.min(CombinationKernel.MAX_COUNT, rights.size - from);
+                kernel.combine(a, rights.values, from, count, values, valid);
+                for (int operator = 0; operator < OPERATORS.length; operator++)
+                {
+                    if ((operators & 1 << operator) == 0)
+                        valid[operator] = 0;
+                    rejections[operator] += count - Long.bitCount(valid[operator]);
+                }
+                // The combinations are added in the same order as if each pair of operands were
+                // combined in turn, so the entries kept are the same.
+                for (var remaining = valid[ADD] | valid[SUBTRACT] | valid[MULTIPLY]
+                        | valid[DIVIDE]; remaining != 0; remaining &= remaining - 1)
+                {
+                    var j = Long.numberOfTrailingZeros(remaining);
+                    for (int operator = 0; operator < OPERATORS.length; operator++)
+                        if ((valid[operator] & 1L << j) != 0)
+                            combine(result, values[operator][j], operator, leftMask, lefts, left,
+                                    rights, from + j);
+                }
+            }
+        }
+        // Expressions which duplicate the value and priority of a better one are not kept, so
+        // this counts the distinct expressions kept for the subset.
+        SolverMetrics.record(result.size - expressionCount, rejections, 0);
+    }
+
+    private static void combine(Subset result, int value, int operator, int leftMask,
+            Subset lefts, int left, Subset rights, int right)
+    {
+        var op = OPERATORS[operator];
+        var parenthesiseLeft = lefts.priorities[left] < op.priority;
+        var parenthesiseRight = rights.priorities[right] < op.priority
+                || (rights.priorities[right] == op.priority && !op.commutative);
+        var parentheses = (parenthesiseLeft ? 1 : 0) + (parenthesiseRight ? 1 : 0)
+                + lefts.parentheses[left] + rights.parentheses[right];
+        result.add(value, op.priority, parentheses, operator, leftMask, left, right);
+    }
+
+    /**
+     * The values that can be made from the numbers in a subset. Each entry is held in a set of
+     * parallel arrays, and is made by applying an operator to an entry of the subset with mask
+     * leftMasks[i] and an entry of the complementary subset; or if the operator is NUMBER, it is
+     * a single number. An open-addressing hash table indexes the entries by value and priority.
+     */
+    static class Subset
+    {
+        // The size of the storage for each entry: the value, the number of parentheses, the mask
+        // of the left operand's subset and the indices of the operands, the priority and the
+        // operator, and two slots of the index.
+        private static final int BYTES_PER_ENTRY = Integer.BYTES * 5 + Byte.BYTES * 2
+                + Integer.BYTES * 2;
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final MemoryBudget budget;
+        int size = 0;
+        int[] values;
+        byte[] priorities;
+        int[] parentheses;
+        byte[] operators;
+        int[] leftMasks;
+        int[] lefts;
+        int[] rights;
+        private int[] index;
+
+        Subset(MemoryBudget budget)
+        {
+            this.budget = budget;
+            budget.reserve((long) INITIAL_CAPACITY * BYTES_PER_ENTRY);
+            values = new int[INITIAL_CAPACITY];
+            priorities = new byte[INITIAL_CAPACITY];
+            parentheses = new int[INITIAL_CAPACITY];
+            operators = new byte[INITIAL_CAPACITY];
+            leftMasks = new int[INITIAL_CAPACITY];
+            lefts = new int[INITIAL_CAPACITY];
+            rights = new int[INITIAL_CAPACITY];
+            index = new int[INITIAL_CAPACITY * 2];
+        }
+
+        void add(int value, int priority, int parentheses, int operator, int leftMask, int left,
+                int right)
+        {
+            var slot = find(value, priority);
+            var i = index[slot] - 1;
+            if (i >= 0)
+            {
+                if (parentheses >= this.parentheses[i])
+                    return;
+            }
+            else
+            {
+                i = size++;
+                index[slot] = size;
+                values[i] = value;
+                priorities[i] = (byte) priority;
+                if (size == values.length)
+                    grow();
+            }
+            this.parentheses[i] = parentheses;
+            operators[i] = (byte) operator;
+            leftMasks[i] = leftMask;
+            lefts[i] = left;
+            rights[i] = right;
+        }
+
+        /**
+         * Gets the index of the entry with the specified value and priority, or -1 if there is
+         * none.
+         */
+        int indexOf(int value, int priority)
+        {
+            return index[find(value, priority)] - 1;
+        }
+
+        private int find(int value, int priority)
+        {
+            var mask = index.length - 1;
+            var hash = (value * 4 + priority) * 0x9E3779B9;
+            var slot = (hash ^ hash >>> 16) & mask;
+            while (index[slot] != 0)
+            {
+                var i = index[slot] - 1;
+                if (values[i] == value && priorities[i] == priority)
+                    break;
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        private void grow()
+        {
+            var oldLength = values.length;
+            var length = oldLength * 2;
+            budget.reserve((long) length * BYTES_PER_ENTRY);
+            values = Arrays.copyOf(values, length);
+            priorities = Arrays.copyOf(priorities, length);
+            parentheses = Arrays.copyOf(parentheses, length);
+            operators = Arrays.copyOf(operators, length);
+            leftMasks = Arrays.copyOf(leftMasks, length);
+            lefts = Arrays.copyOf(lefts, length);
+            rights = Arrays.copyOf(rights, length);
+            index = new int[length * 2];
+            for (int i = 0; i < size; i++)
+                index[find(values[i], priorities[i])] = i + 1;
+            budget.release((long) oldLength * BYTES_PER_ENTRY);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package uk.org.thehickses.countdown;
+
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * The best solution for every target number in a range, using one set of source numbers.
+ *
+ * The solutions are found in a single pass by a {@link SubsetSearch}, whose values do not depend on
+ * the target number, so the work of finding them is shared by all the targets. Each solution is
+ * held as an {@link ExpressionCode}, so the table takes one long per target; the
+ * {@link Expression}, which records its difference from a particular target, is only built when the
+ * solution for that target is looked up.
+ */
+public class TargetTable
+{
+    private final int[] numbers;
+    private final int minTarget;
+    private final long[] codes;
+
+    TargetTable(int[] numbers, int minTarget, long[] codes)
+    {
+        this.numbers = numbers;
+        this.minTarget = minTarget;
+        this.codes = codes;
+    }
+
+    /**
+     * Finds the best solution for every target number in the specified range, using the specified
+     * source numbers. The search can be cancelled by the specified cancellation.
+     *
+     * @throws IllegalArgumentException
+     *             if there are more source numbers than an {@link ExpressionCode} can hold.
+     */
+    static TargetTable solve(int[] numbers, int minTarget, int maxTarget,
+            Cancellation cancellation)
+    {
+        if (numbers.length > ExpressionCode.MAX_NUMBERS)
+            throw new IllegalArgumentException(String.format(
+                    "Solutions for all targets can only be found for up to %d source numbers",
+                    ExpressionCode.MAX_NUMBERS));
+        var search = new SubsetSearch(numbers, cancellation);
+        var solutions = search.solveAll(minTarget, maxTarget);
+        var codes = new long[solutions.length];
+        for (int i = 0; i < solutions.length; i++)
+            codes[i] = solutions[i] == SubsetSearch.NO_SOLUTION ? ExpressionCode.NONE
+                    : search.encode(SubsetSearch.mask(solutions[i]),
+                            SubsetSearch.index(solutions[i]));
+        return new TargetTable(numbers.clone(), minTarget, codes);
+    }
+
+    public int[] getNumbers()
+    {
+        return numbers.clone();
+    }
+
+    public int getMinTarget()
+    {
+        return minTarget;
+    }
+
+    public int getMaxTarget()
+    {
+        return minTarget + codes.length - 1;
+    }
+
+    /**
+     * Gets the best solution for the specified target number, or null if there is none.
+     *
+     * @throws IllegalArgumentException
+     *             if the target number is not in the range covered by the table.
+     */
+    public Expression get(int target)
+    {
+        if (target < minTarget || target > getMaxTarget())
+            throw new IllegalArgumentException(
+                    String.format("Target number must be in the range %d to %d inclusive",
+                            minTarget, getMaxTarget()));
+        return ExpressionCode.decode(codes[target - minTarget], numbers, target);
+    }
+}
@@ -1,10 +1,26 @@
 package uk.org.thehickses.countdown.web;
 
+import java.io.IOException;
+import java.time.Duration;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+import org.springframework.util.unit.DataSize;
+
+import uk.org.thehickses.countdown.BatchSolver;
+import uk.org.thehickses.countdown.IncrementalSolvers;
+import uk.org.thehickses.countdown.Rules;
+import uk.org.thehickses.countdown.SolutionCache;
+import uk.org.thehickses.countdown.SolverExecutor;
 
 @SpringBootApplication
 public class Application
@@ -24,8 +40,134 @@ public class Application
     }
 
     @Bean
-    Templater templater()
+    Templater templater() throws IOException
+    {
+        return new Templater("templates", "index.ftlh");
+    }
+
+    @Bean
+    PageConverter pageConverter(Templater templater)
+    {
+        return new PageConverter(templater, "index.ftlh");
+    }
+
+    @Bean
+    Rules rules(Environment environment)
+    {
+        return Rules.fromProperties(environment::getProperty);
+    }
+
+    @Bean
+    SolutionCache solutionCache(@Value("${countdown.cache.capacity}") int capacity)
+    {
+        return new SolutionCache(capacity);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    SolverExecutor solverExecutor(
+            @Value("${countdown.solver.max-concurrent-solves}") int maxConcurrentSolves,
+            @Value("${countdown.solver.queue-capacity}") int queueCapacity,
+            @Value("${countdown.solver.parallelism:0}") int parallelism,
+            @Value("${countdown.solver.deadline}") Duration deadline)
+    {
+        return new SolverExecutor(maxConcurrentSolves, queueCapacity,
+                parallelism > 0 ? parallelism : Runtime.getRuntime()
+                        .availableProcessors(),
+                deadline);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    BatchSolver batchSolver(Rules rules,
+            @Value("${countdown.batch.parallelism:0}") int parallelism,
+            @Value("${countdown.solver.max-concurrent-solves}") int maxConcurrentSolves)
+    {
+        return new BatchSolver(rules, parallelism > 0 ? parallelism : maxConcurrentSolves);
+    }
+
+    @Bean
+    IncrementalSolvers incrementalSolvers(
+            @Value("${countdown.incremental.max-sessions}") int maxSessions,
+            @Value("${countdown.incremental.idle-timeout}") Duration idleTimeout,
+            @Value("${countdown.incremental.memory-budget}") DataSize memoryBudget)
+    {
+        return new IncrementalSolvers(maxSessions, idleTimeout, memoryBudget.toBytes());
+    }
+
+    @Bean
+    MeterBinder solverExecutorMetrics(SolverExecutor executor)
+    {
+        return registry ->
+            {
+                Gauge.builder("countdown.executor.active", executor, SolverExecutor::getActiveCount)
+                        .description("Searches running")
+                        .register(registry);
+                Gauge.builder("countdown.executor.queued", executor, SolverExecutor::getQueueDepth)
+                        .description("Searches waiting to run")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.executor.rejected", executor,
+                                SolverExecutor::getRejections)
+                        .description("Searches rejected because too many were in progress")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.executor.timeouts", executor,
+                                SolverExecutor::getTimeouts)
+                        .description("Searches cancelled because their deadline passed")
+                        .register(registry);
+            };
+    }
+
+    @Bean
+    MeterBinder solutionCacheMetrics(SolutionCache cache)
+    {
+        return registry ->
+            {
+                Gauge.builder("countdown.cache.size", cache, SolutionCache::getSize)
+                        .description("Solutions in the cache")
+                        .register(registry);
+                FunctionCounter.builder("countdown.cache.hits", cache, SolutionCache::getHits)
+                        .description("Solutions found in the cache")
+                        .register(registry);
+                FunctionCounter.builder("countdown.cache.misses", cache, SolutionCache::getMisses)
+                        .description("Solutions not found in the cache")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.cache.evictions", cache, SolutionCache::getEvictions)
+                        .description("Solutions evicted from the cache")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.cache.coalesced", cache, SolutionCache::getCoalesced)
+                        .description("Solves saved by sharing a solve of the same game in flight")
+                        .register(registry);
+            };
+    }
+
+    @Bean
+    MeterBinder incrementalSolverMetrics(IncrementalSolvers solvers)
     {
-        return new Templater("templates");
+        return registry ->
+            {
+                Gauge.builder("countdown.incremental.sessions", solvers,
+                        IncrementalSolvers::getSize)
+                        .description("Sessions with an incremental solver")
+                        .register(registry);
+                Gauge.builder("countdown.incremental.retained", solvers,
+                        IncrementalSolvers::getRetainedBytes)
+                        .description("Storage retained by the incremental solvers")
+                        .baseUnit("bytes")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.incremental.discarded", solvers,
+                                IncrementalSolvers::getEvictions)
+                        .description("Incremental solvers discarded")
+                        .tags("reason", "evicted")
+                        .register(registry);
+                FunctionCounter
+                        .builder("countdown.incremental.discarded", solvers,
+                                IncrementalSolvers::getExpiries)
+                        .description("Incremental solvers discarded")
+                        .tags("reason", "expired")
+                        .register(registry);
+            };
     }
 }
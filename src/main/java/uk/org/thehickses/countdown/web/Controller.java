@@ -1,67 +1,375 @@
 package uk.org.thehickses.countdown.web;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
 
-import org.apache.commons.lang3.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import uk.org.thehickses.countdown.BatchSolver;
+import uk.org.thehickses.countdown.Cancellation;
+import uk.org.thehickses.countdown.IncrementalSolver;
+import uk.org.thehickses.countdown.IncrementalSolvers;
+import uk.org.thehickses.countdown.Rules;
+import uk.org.thehickses.countdown.SolutionCache;
 import uk.org.thehickses.countdown.Solver;
+import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.SolverExecutor;
+import uk.org.thehickses.countdown.TargetTable;
 
 @RestController
 public class Controller
 {
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    @Autowired
+    SolutionCache cache;
+
+    @Autowired
+    SolverExecutor executor;
+
+    @Autowired
+    BatchSolver batchSolver;
+
+    @Autowired
+    Rules rules;
+
     @Autowired
-    Templater templater;
-    
+    IncrementalSolvers incrementalSolvers;
+
+    /**
+     * The memory budget of each solve (see {@link Solver#solveWithinMemory(long)}), or zero if
+     * solves are not limited.
+     */
+    @Value("${countdown.solver.memory-budget:0}")
+    DataSize memoryBudget;
+
+    /**
+     * Solves the game specified by the request parameters, if any, and outputs the page showing
+     * the solution. The page is written straight to the response by {@link PageConverter}.
+     */
     @RequestMapping(path = "/")
-    public String home(HttpServletRequest req) throws Exception
+    public DeferredResult<ResponseEntity<Model>> home(HttpServletRequest req)
     {
-        var model = new Model();
+        var numberCount = rules.getNumberCount();
         if (!req.getParameterNames()
                 .hasMoreElements())
-            return outputPage(model);
-        var args = IntStream.range(0, 7)
-                .mapToObj(i -> req.getParameter("num" + i))
-                .filter(StringUtils::isNotEmpty)
-                .toArray(String[]::new);
+            return completed(ResponseEntity.ok(new Model(numberCount)));
+        var args = HomePage.args(req::getParameter, numberCount);
+        Solver solver;
+        try
+        {
+            solver = Solver.instance(rules, args);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return completed(ResponseEntity.ok(HomePage.invalid(numberCount, args,
+                    ex.getMessage())));
+        }
+        // Each outcome has its own model, since the outcomes can race.
+        return solve(solver, search(solver, req.getSession(false)),
+                solution -> ResponseEntity.ok(HomePage.solved(numberCount, solver, solution)),
+                message -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body(HomePage.unavailable(numberCount, args, solver, message)));
+    }
+
+    /**
+     * Solves the specified game, and returns the target number, the source numbers, and the
+     * solution, its value and the source numbers it uses, which are null if there is no solution.
+     * The response is written straight to the response stream as JSON.
+     */
+    @GetMapping(path = "/solve", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<ResponseEntity<Map<String, Object>>> solve(@RequestParam int target,
+            @RequestParam int[] numbers)
+    {
+        try
+        {
+            rules.validateTarget(target);
+            rules.validateSourceNumbers(numbers);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return completed(ResponseEntity.badRequest()
+                    .body(error(ex.getMessage())));
+        }
+        var solver = new Solver(target, numbers);
+        return solve(solver, search(solver, null), solution ->
+            {
+                var result = new LinkedHashMap<String, Object>();
+                result.put("target", target);
+                result.put("numbers", numbers);
+                result.put("solution", solution == null ? null : solution.toString());
+                result.put("value", solution == null ? null : solution.value);
+                result.put("numbersUsed", solution == null ? null : solution.numbers);
+                return ResponseEntity.ok(result);
+            }, message -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(error(message)));
+    }
+
+    /**
+     * Updates the source numbers entered so far in the session, which are specified by the
+     * request parameters num1 to numN, omitting any which are not specified or are empty, and
+     * calculates the values that can be made from them (see {@link IncrementalSolver}), so that
+     * when the game is submitted it is solved almost at once. The page sends the numbers whenever
+     * one is entered. The response contains the numbers, and the storage retained for them. As
+     * for {@link #home}, the request thread is released while the values are calculated.
+     */
+    @PostMapping(path = "/numbers")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> numbers(HttpServletRequest req)
+    {
+        int[] numbers;
+        try
+        {
+            numbers = HomePage.sourceNumbers(req::getParameter, rules.getNumberCount());
+            rules.validateSourceNumbers(numbers);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            return completed(ResponseEntity.badRequest()
+                    .body(error(ex.getMessage())));
+        }
+        var solver = incrementalSolvers.get(req.getSession()
+                .getId());
+        CompletableFuture<Long> update = executor.submit(cancellation ->
+            {
+                solver.update(numbers, cancellation);
+                return solver.getRetainedBytes();
+            });
+        return respond(update, retainedBytes ->
+            {
+                var result = new LinkedHashMap<String, Object>();
+                result.put("numbers", numbers);
+                result.put("retainedBytes", retainedBytes);
+                return ResponseEntity.ok(result);
+            }, message -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(error(message)));
+    }
+
+    private static Map<String, Object> error(String message)
+    {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("error", message);
+        return result;
+    }
+
+    private static <T> DeferredResult<T> completed(T value)
+    {
+        var result = new DeferredResult<T>();
+        result.setResult(value);
+        return result;
+    }
+
+    /**
+     * Gets the search for the specified game: by the incremental solver of the specified session,
+     * if there is one and it has one, so that the values already calculated from the numbers
+     * entered in the session are used; otherwise by the default strategies, within the memory
+     * budget if there is one.
+     */
+    private Function<Cancellation, Expression> search(Solver solver, HttpSession session)
+    {
+        var incremental = session == null ? Optional.<IncrementalSolver>empty()
+                : incrementalSolvers.find(session.getId());
+        if (incremental.isPresent())
+            return cancellation -> solver.solve(incremental.get(), cancellation);
+        if (memoryBudget.toBytes() > 0)
+            return cancellation -> solver.solveWithinMemory(memoryBudget.toBytes(),
+                    cancellation).solution;
+        return solver::solve;
+    }
+
+    /**
+     * Solves the specified game in the solver executor, through the cache, and returns the
+     * response created from the solution; or if the executor is busy or the search takes too
+     * long, the response created from a message explaining so (see
+     * {@link #respond(CompletableFuture, Function, Function)}).
+     */
+    private <T> DeferredResult<ResponseEntity<T>> solve(Solver solver,
+            Function<Cancellation, Expression> search,
+            Function<Expression, ResponseEntity<T>> solved,
+            Function<String, ResponseEntity<T>> unavailable)
+    {
+        return respond(cache.getAsync(solver.getTarget(), solver.getNumbers(),
+                () -> executor.submit(search)), solved, unavailable);
+    }
+
+    /**
+     * Returns the response created from the result of the specified search, which has been
+     * submitted to the solver executor; or if the executor is busy, or the search takes too long
+     * or exceeds its memory budget, the response created from a message explaining so. The
+     * request thread is released while the search runs; if the request times out, or fails (for
+     * example because the client has gone away), the search is cancelled.
+     */
+    private <S, T> DeferredResult<ResponseEntity<T>> respond(CompletableFuture<S> search,
+            Function<S, ResponseEntity<T>> done, Function<String, ResponseEntity<T>> unavailable)
+    {
+        var result = new DeferredResult<ResponseEntity<T>>(executor.getDeadline()
+                .toMillis());
+        result.onTimeout(() -> result.setResult(unavailable.apply(HomePage.TOO_LONG)));
+        result.onCompletion(() -> search.cancel(true));
+        search.whenComplete((value, ex) ->
+            {
+                if (ex == null)
+                {
+                    result.setResult(done.apply(value));
+                    return;
+                }
+                // The exception is wrapped if the search is derived from another future, as it is
+                // by the cache, but not if it is the executor's own.
+                var failure = ex instanceof CompletionException ? ex : new CompletionException(ex);
+                var message = HomePage.unavailableMessage(failure);
+                if (message == null)
+                    result.setErrorResult(failure.getCause());
+                else
+                    result.setResult(unavailable.apply(message));
+            });
+        return result;
+    }
+
+    /**
+     * Solves a batch of games, specified one per line in the request body, and streams the result
+     * of each back as a line of JSON as soon as it is available, in the specified order. See
+     * {@link BatchSolver}. The games are read from the request body as they are solved, so the
+     * batch is never held in memory, and each is solved through the cache in the solver executor,
+     * so it is subject to the same admission control and deadline as any other solve; a game
+     * which is rejected or takes too long has an error as its result.
+     */
+    @PostMapping(path = "/batch")
+    public ResponseEntity<StreamingResponseBody> batch(InputStream input,
+            @RequestParam(defaultValue = "INPUT") BatchSolver.Order order)
+    {
+        StreamingResponseBody body = out ->
+            {
+                try (var games = new BufferedReader(
+                        new InputStreamReader(input, StandardCharsets.UTF_8)))
+                {
+                    batchSolver.solve(games.lines(), order,
+                            solver -> cache.get(solver.getTarget(), solver.getNumbers(),
+                                    () -> executor.solve(search(solver, null))),
+                            result ->
+                                {
+                                    try
+                                    {
+                                        out.write((result + "\n")
+                                                .getBytes(StandardCharsets.UTF_8));
+                                        out.flush();
+                                    }
+                                    catch (IOException ex)
+                                    {
+                                        throw new UncheckedIOException(ex);
+                                    }
+                                });
+                }
+            };
+        return ResponseEntity.ok()
+                .contentType(NDJSON)
+                .body(body);
+    }
+
+    /**
+     * Gets the best solution for every target number allowed by the rules, using the specified
+     * source numbers (see {@link Solver#solveAllTargets(Rules, int[], Cancellation)}). The
+     * response has one entry for each target, in ascending order, containing the target number,
+     * and the solution and its value, which are null if there is no solution. As for
+     * {@link #home}, the request thread is released while the solutions are found.
+     */
+    @GetMapping(path = "/targets")
+    public DeferredResult<ResponseEntity<Map<String, Object>>> targets(
+            @RequestParam int[] numbers)
+    {
         try
         {
-            var solver = Solver.instance(args);
-            model.addMessage(String.format("Target: %d, numbers: %s", solver.getTarget(),
-                    IntStream.of(solver.getNumbers())
-                            .mapToObj(String::valueOf)
-                            .collect(Collectors.joining(", "))));
-            var solution = solver.solve();
-            if (solution == null)
-                model.addMessage("No solution found");
-            else
-                model.addMessage(String.format("%s = %d", solution, solution.value));
-            return outputPage(model);
+            rules.validateSourceNumbers(numbers);
         }
         catch (IllegalArgumentException ex)
         {
-            model.setInput(args)
-                    .addMessage(ex.getMessage());
-            return outputPage(model);
+            return completed(ResponseEntity.badRequest()
+                    .body(error(ex.getMessage())));
         }
+        CompletableFuture<TargetTable> search = executor
+                .submit(cancellation -> Solver.solveAllTargets(rules, numbers, cancellation));
+        return respond(search, table ->
+            {
+                var result = new LinkedHashMap<String, Object>();
+                result.put("numbers", table.getNumbers());
+                result.put("solutions", IntStream
+                        .rangeClosed(table.getMinTarget(), table.getMaxTarget())
+                        .mapToObj(target -> targetSolution(target, table.get(target)))
+                        .collect(Collectors.toList()));
+                return ResponseEntity.ok(result);
+            }, message -> ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(error(message)));
+    }
+
+    private static Map<String, Object> targetSolution(int target, Expression solution)
+    {
+        var result = new LinkedHashMap<String, Object>();
+        result.put("target", target);
+        result.put("solution", solution == null ? null : solution.toString());
+        result.put("value", solution == null ? null : solution.value);
+        return result;
     }
 
-    private String outputPage(Model model) throws Exception
+    @RequestMapping(path = "/status")
+    public Map<String, Object> status()
     {
-        return templater.applyTemplate("index.ftlh", model);
+        var result = new LinkedHashMap<String, Object>();
+        result.put("activeSolves", executor.getActiveCount());
+        result.put("queueDepth", executor.getQueueDepth());
+        result.put("rejections", executor.getRejections());
+        result.put("timeouts", executor.getTimeouts());
+        result.put("cacheSize", cache.getSize());
+        result.put("cacheHits", cache.getHits());
+        result.put("cacheMisses", cache.getMisses());
+        result.put("cacheEvictions", cache.getEvictions());
+        result.put("cacheCoalesced", cache.getCoalesced());
+        result.put("incrementalSessions", incrementalSolvers.getSize());
+        return result;
     }
 
     public static class Model
     {
+        private final int numberCount;
         private String[] input;
         private final List<String> messages = new ArrayList<>();
+        private boolean incremental = true;
+
+        public Model(int numberCount)
+        {
+            this.numberCount = numberCount;
+        }
+
+        public int getNumberCount()
+        {
+            return numberCount;
+        }
 
         public List<String> getMessages()
         {
@@ -84,5 +392,20 @@ public class Controller
             messages.add(str);
             return this;
         }
+
+        /**
+         * Gets whether the page sends the source numbers to {@link Controller#numbers} as they
+         * are entered; it does unless the server does not support incremental solving.
+         */
+        public boolean isIncremental()
+        {
+            return incremental;
+        }
+
+        public Model setIncremental(boolean incremental)
+        {
+            this.incremental = incremental;
+            return this;
+        }
     }
 }
\ No newline at end of file
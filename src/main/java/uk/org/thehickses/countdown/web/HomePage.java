@@ -0,0 +1,111 @@
+package uk.org.thehickses.countdown.web;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.apache.commons.lang3.StringUtils;
+
+import uk.org.thehickses.countdown.MemoryBudget;
+import uk.org.thehickses.countdown.Solver;
+import uk.org.thehickses.countdown.Solver.Expression;
+
+/**
+ * The contents of the home page, which are the same however it is served: by
+ * {@link Controller#home} in the Spring Boot application, or by {@link LightweightServer}. This
+ * class must not depend on Spring, so that the lightweight server does not load it.
+ */
+final class HomePage
+{
+    static final String BUSY = "The server is busy, please try again later";
+    static final String TOO_LONG = "The solver took too long, please try again later";
+    static final String TOO_BIG = "The solver needs more memory than it is allowed for this game";
+
+    private HomePage()
+    {
+    }
+
+    /**
+     * Gets the arguments specifying the game from the request parameters num0 (the target number)
+     * to numN (the last source number), omitting any which are not specified or are empty.
+     */
+    static String[] args(Function<String, String> parameters, int numberCount)
+    {
+        return IntStream.rangeClosed(0, numberCount)
+                .mapToObj(i -> parameters.apply("num" + i))
+                .filter(StringUtils::isNotEmpty)
+                .toArray(String[]::new);
+    }
+
+    /**
+     * Gets the source numbers from the request parameters num1 to numN, omitting any which are not
+     * specified or are empty.
+     *
+     * @throws NumberFormatException
+     *             if any is not a number.
+     */
+    static int[] sourceNumbers(Function<String, String> parameters, int numberCount)
+    {
+        return IntStream.rangeClosed(1, numberCount)
+                .mapToObj(i -> parameters.apply("num" + i))
+                .filter(StringUtils::isNotEmpty)
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    /**
+     * Gets the model of the page for a game which is invalid, showing the arguments in the form
+     * so that they can be corrected.
+     */
+    static Controller.Model invalid(int numberCount, String[] args, String message)
+    {
+        return new Controller.Model(numberCount).setInput(args)
+                .addMessage(message);
+    }
+
+    static Controller.Model solved(int numberCount, Solver solver, Expression solution)
+    {
+        return new Controller.Model(numberCount).addMessage(describe(solver))
+                .addMessage(solution == null ? "No solution found"
+                        : String.format("%s = %d", solution, solution.value));
+    }
+
+    /**
+     * Gets the model of the page for a game which could not be solved, showing the arguments in
+     * the form so that it can be tried again.
+     */
+    static Controller.Model unavailable(int numberCount, String[] args, Solver solver,
+            String message)
+    {
+        return new Controller.Model(numberCount).setInput(args)
+                .addMessage(describe(solver))
+                .addMessage(message);
+    }
+
+    /**
+     * Gets the message explaining why a solve failed with the specified exception, if it is
+     * because the server is busy, the solve took too long or it exceeded its memory budget, or
+     * null if it failed for any other reason.
+     */
+    static String unavailableMessage(Throwable ex)
+    {
+        if (ex.getCause() instanceof RejectedExecutionException)
+            return BUSY;
+        if (ex.getCause() instanceof MemoryBudget.ExceededException)
+            return TOO_BIG;
+        if (ex instanceof CancellationException
+                || ex.getCause() instanceof CancellationException)
+            return TOO_LONG;
+        return null;
+    }
+
+    private static String describe(Solver solver)
+    {
+        return String.format("Target: %d, numbers: %s", solver.getTarget(),
+                IntStream.of(solver.getNumbers())
+                        .mapToObj(String::valueOf)
+                        .collect(Collectors.joining(", ")));
+    }
+}
@@ -0,0 +1,367 @@
+package uk.org.thehickses.countdown.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import freemarker.template.TemplateException;
+import uk.org.thehickses.countdown.Rules;
+import uk.org.thehickses.countdown.SolutionCache;
+import uk.org.thehickses.countdown.Solver;
+import uk.org.thehickses.countdown.SolverExecutor;
+
+/**
+ * An alternative to the Spring Boot application which serves just the home page, in the same way
+ * as {@link Controller#home}, using the HTTP server built into the JDK. It does not support
+ * incremental solving, so its page does not send the source numbers as they are entered. It
+ * creates no Spring context, and loads only the classes it needs, so it starts much more quickly
+ * and uses less memory, which matters when instances are started on demand on small machines.
+ *
+ * It is configured by the same properties as the application, read from application.properties,
+ * which can be overridden by system properties or by arguments of the form --name=value. Durations
+ * and data sizes are specified as in Spring Boot, such as 10s or 500ms, and 16MB. The port is
+ * specified by server.port, or if that is not set, by the PORT environment variable, or is 8080.
+ * Once it is listening, the solver is warmed up by solving a few games in the background, so that
+ * they are compiled by the JIT compiler before many requests are served, unless countdown.warmup
+ * is false.
+ */
+public class LightweightServer
+{
+    private static final Logger LOG = LoggerFactory.getLogger(LightweightServer.class);
+    private static final String TEMPLATE = "index.ftlh";
+    private static final int[][] WARM_UP_GAMES = { { 834, 10, 9, 8, 7, 6, 5 },
+            { 378, 50, 7, 4, 3, 2, 1 }, { 954, 50, 75, 25, 100, 5, 8 },
+            { 999, 1, 2, 3, 4, 5, 6 } };
+
+    public static void main(String[] args)
+    {
+        try
+        {
+            var properties = properties(args);
+            var port = properties.getProperty("server.port",
+                    System.getenv()
+                            .getOrDefault("PORT", "8080"));
+            new LightweightServer(properties, Integer.parseInt(port)).start();
+        }
+        catch (Throwable ex)
+        {
+            LOG.error("Unexpected error", ex);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the properties in application.properties, overridden by the system properties and then
+     * by the specified arguments of the form --name=value.
+     */
+    public static Properties properties(String[] args) throws IOException
+    {
+        var properties = new Properties();
+        try (var in = LightweightServer.class.getResourceAsStream("/application.properties"))
+        {
+            if (in != null)
+                properties.load(in);
+        }
+        properties.putAll(System.getProperties());
+        Arrays.stream(args)
+                .filter(arg -> arg.startsWith("--") && arg.contains("="))
+                .forEach(arg -> properties.setProperty(arg.substring(2, arg.indexOf('=')),
+                        arg.substring(arg.indexOf('=') + 1)));
+        return properties;
+    }
+
+    private final Rules rules;
+    private final SolutionCache cache;
+    private final SolverExecutor executor;
+    private final Templater templater;
+    private final long memoryBudget;
+    private final boolean warmUp;
+    private final HttpServer server;
+    private final ExecutorService requestThreads;
+
+    /**
+     * Creates a server configured by the specified properties, which listens on the specified
+     * port, or on a free port if it is 0. It does not accept requests until it is started.
+     */
+    public LightweightServer(Properties properties, int port) throws IOException
+    {
+        rules = Rules.fromProperties(properties::getProperty);
+        cache = new SolutionCache(
+                Integer.parseInt(properties.getProperty("countdown.cache.capacity")));
+        var parallelism = Integer
+                .parseInt(properties.getProperty("countdown.solver.parallelism", "0"));
+        executor = new SolverExecutor(
+                Integer.parseInt(properties.getProperty("countdown.solver.max-concurrent-solves")),
+                Integer.parseInt(properties.getProperty("countdown.solver.queue-capacity")),
+                parallelism > 0 ? parallelism : Runtime.getRuntime()
+                        .availableProcessors(),
+                parseDuration(properties.getProperty("countdown.solver.deadline")));
+        memoryBudget = parseDataSize(
+                properties.getProperty("countdown.solver.memory-budget", "0"));
+        templater = new Templater("templates", TEMPLATE);
+        warmUp = Boolean.parseBoolean(properties.getProperty("countdown.warmup", "true"));
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::home);
+        var threadCount = new AtomicInteger();
+        requestThreads = Executors.newCachedThreadPool(r ->
+            {
+                var thread = new Thread(r, "http-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        server.setExecutor(requestThreads);
+    }
+
+    /**
+     * Parses a duration in the simple form used by Spring Boot (a number followed by an optional
+     * unit, which defaults to milliseconds), or in ISO-8601 form.
+     */
+    static Duration parseDuration(String value)
+    {
+        var matcher = Pattern.compile("(\\d+)(ms|s|m|h|d)?")
+                .matcher(value.trim());
+        if (!matcher.matches())
+            return Duration.parse(value);
+        var amount = Long.parseLong(matcher.group(1));
+        switch (matcher.group(2) == null ? "ms" : matcher.group(2))
+        {
+        case "s":
+            return Duration.ofSeconds(amount);
+        case "m":
+            return Duration.ofMinutes(amount);
+        case "h":
+            return Duration.ofHours(amount);
+        case "d":
+            return Duration.ofDays(amount);
+        default:
+            return Duration.ofMillis(amount);
+        }
+    }
+
+    /**
+     * Parses a data size in the form used by Spring Boot: a number of bytes, optionally followed
+     * by a unit of B, KB, MB, GB or TB, where a kilobyte is 1024 bytes.
+     */
+    static long parseDataSize(String value)
+    {
+        var matcher = Pattern.compile("(\\d+)(B|KB|MB|GB|TB)?")
+                .matcher(value.trim()
+                        .toUpperCase());
+        if (!matcher.matches())
+            throw new IllegalArgumentException("Invalid data size: " + value);
+        var units = List.of("B", "KB", "MB", "GB", "TB");
+        return Long.parseLong(matcher.group(1)) << 10 * units.indexOf(
+                matcher.group(2) == null ? "B" : matcher.group(2));
+    }
+
+    public void start()
+    {
+        server.start();
+        LOG.info("Lightweight server listening on port {}", getPort());
+        if (warmUp)
+        {
+            var thread = new Thread(this::warmUp, "warm-up");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.start();
+        }
+    }
+
+    public int getPort()
+    {
+        return server.getAddress()
+                .getPort();
+    }
+
+    public void stop()
+    {
+        server.stop(0);
+        requestThreads.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Solves some games with the strategy used for the games of the standard rules, and outputs
+     * their pages, discarding the results.
+     */
+    private void warmUp()
+    {
+        var start = System.nanoTime();
+        for (var game : WARM_UP_GAMES)
+        {
+            var solver = new Solver(game[0], Arrays.copyOfRange(game, 1, game.length));
+            var solution = solver.solve(Solver.Strategy.DEEPENING);
+            try
+            {
+                templater.applyTemplate(TEMPLATE,
+                        HomePage.solved(rules.getNumberCount(), solver, solution),
+                        Writer.nullWriter());
+            }
+            catch (IOException | TemplateException ex)
+            {
+                LOG.warn("Unable to output page while warming up", ex);
+            }
+        }
+        LOG.info("Warmed up the solver in {} ms", (System.nanoTime() - start) / 1000000);
+    }
+
+    /**
+     * Serves the home page, as {@link Controller#home} does. The request thread is released while
+     * the game is solved, and the page is output by the thread which completes the solve.
+     */
+    private void home(HttpExchange exchange) throws IOException
+    {
+        if (!exchange.getRequestURI()
+                .getPath()
+                .equals("/"))
+        {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        Map<String, String> parameters;
+        try
+        {
+            parameters = parameters(exchange);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            // A parameter is not validly URL-encoded.
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+            return;
+        }
+        var numberCount = rules.getNumberCount();
+        if (parameters.isEmpty())
+        {
+            respond(exchange, 200, new Controller.Model(numberCount));
+            return;
+        }
+        var args = HomePage.args(parameters::get, numberCount);
+        Solver solver;
+        try
+        {
+            solver = Solver.instance(rules, args);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            respond(exchange, 200, HomePage.invalid(numberCount, args, ex.getMessage()));
+            return;
+        }
+        cache.getAsync(solver.getTarget(), solver.getNumbers(),
+                () -> executor.submit(c -> memoryBudget > 0
+                        ? solver.solveWithinMemory(memoryBudget, c).solution
+                        : solver.solve(c)))
+                .whenComplete((solution, ex) ->
+                    {
+                        try
+                        {
+                            if (ex == null)
+                            {
+                                respond(exchange, 200,
+                                        HomePage.solved(numberCount, solver, solution));
+                                return;
+                            }
+                            var message = HomePage.unavailableMessage(ex);
+                            if (message != null)
+                            {
+                                respond(exchange, 503, HomePage.unavailable(numberCount, args,
+                                        solver, message));
+                                return;
+                            }
+                            LOG.error("Unable to solve game", ex);
+                            exchange.sendResponseHeaders(500, -1);
+                            exchange.close();
+                        }
+                        catch (IOException | UncheckedIOException e)
+                        {
+                            LOG.debug("Unable to send response", e);
+                            exchange.close();
+                        }
+                    });
+    }
+
+    /**
+     * Gets the request parameters, from the query string and, if the request is a form, the
+     * body. Where a parameter is specified more than once, the first value is used, as
+     * {@link javax.servlet.ServletRequest#getParameter(String)} does.
+     *
+     * @throws IllegalArgumentException
+     *             if a parameter is not validly URL-encoded.
+     */
+    private static Map<String, String> parameters(HttpExchange exchange) throws IOException
+    {
+        var parameters = new HashMap<String, String>();
+        addParameters(exchange.getRequestURI()
+                .getRawQuery(), parameters);
+        var contentType = exchange.getRequestHeaders()
+                .getFirst("Content-Type");
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded"))
+            try (InputStream in = exchange.getRequestBody())
+            {
+                addParameters(new String(in.readAllBytes(), StandardCharsets.UTF_8), parameters);
+            }
+        return parameters;
+    }
+
+    private static void addParameters(String encoded, Map<String, String> parameters)
+    {
+        if (encoded == null || encoded.isEmpty())
+            return;
+        for (var pair : encoded.split("&"))
+        {
+            var equals = pair.indexOf('=');
+            var name = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals),
+                    StandardCharsets.UTF_8);
+            var value = equals < 0 ? ""
+                    : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            parameters.putIfAbsent(name, value);
+        }
+    }
+
+    /**
+     * Outputs the page for the specified model, straight to the response body.
+     */
+    private void respond(HttpExchange exchange, int status, Controller.Model model)
+            throws IOException
+    {
+        model.setIncremental(false);
+        exchange.getResponseHeaders()
+                .set("Content-Type", "text/html;charset=UTF-8");
+        exchange.sendResponseHeaders(status, 0);
+        try (var out = new OutputStreamWriter(exchange.getResponseBody(),
+                StandardCharsets.UTF_8))
+        {
+            templater.applyTemplate(TEMPLATE, model, out);
+        }
+        catch (TemplateException ex)
+        {
+            LOG.error("Unable to output page", ex);
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+}
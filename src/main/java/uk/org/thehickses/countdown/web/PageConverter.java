@@ -0,0 +1,66 @@
+package uk.org.thehickses.countdown.web;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import freemarker.template.TemplateException;
+
+/**
+ * Writes a {@link Controller.Model} as an HTML page, by applying a template to it and writing the
+ * output straight to the response body, rather than building the page as a string first.
+ */
+public class PageConverter extends AbstractHttpMessageConverter<Controller.Model>
+{
+    private final Templater templater;
+    private final String templateName;
+
+    public PageConverter(Templater templater, String templateName)
+    {
+        super(StandardCharsets.UTF_8, MediaType.TEXT_HTML);
+        this.templater = templater;
+        this.templateName = templateName;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz)
+    {
+        return Controller.Model.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    public boolean canRead(Class<?> clazz, MediaType mediaType)
+    {
+        return false;
+    }
+
+    @Override
+    protected Controller.Model readInternal(Class<? extends Controller.Model> clazz,
+            HttpInputMessage inputMessage)
+    {
+        throw new HttpMessageNotReadableException("Pages cannot be read", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(Controller.Model model, HttpOutputMessage outputMessage)
+            throws IOException
+    {
+        var out = new OutputStreamWriter(outputMessage.getBody(), getDefaultCharset());
+        try
+        {
+            templater.applyTemplate(templateName, model, out);
+        }
+        catch (TemplateException ex)
+        {
+            throw new HttpMessageNotWritableException("Unable to output page", ex);
+        }
+        out.flush();
+    }
+}
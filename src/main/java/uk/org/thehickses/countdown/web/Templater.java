@@ -1,23 +1,40 @@
 package uk.org.thehickses.countdown.web;
 
-import java.io.StringWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
 
 import freemarker.template.Configuration;
+import freemarker.template.Template;
+import freemarker.template.TemplateException;
 
+/**
+ * Applies FreeMarker templates. The templates are loaded and compiled when the templater is
+ * created, and the compiled templates (which are thread-safe) are reused for every request.
+ */
 public class Templater
 {
     private final Configuration cfg = new Configuration(Configuration.VERSION_2_3_31);
+    private final Map<String, Template> templates = new HashMap<>();
 
-    public Templater(String templateDirectory)
+    public Templater(String templateDirectory, String... templateNames) throws IOException
     {
         cfg.setClassLoaderForTemplateLoading(getClass().getClassLoader(), templateDirectory);
+        for (var name : templateNames)
+            templates.put(name, cfg.getTemplate(name));
     }
 
-    public String applyTemplate(String templateName, Object model) throws Exception
+    /**
+     * Applies the specified template to the specified model, writing the output to the specified
+     * writer.
+     */
+    public void applyTemplate(String templateName, Object model, Writer out)
+            throws IOException, TemplateException
     {
-        var sw = new StringWriter();
-        cfg.getTemplate(templateName)
-                .process(model, sw);
-        return sw.toString();
+        var template = templates.get(templateName);
+        if (template == null)
+            throw new IllegalArgumentException("Unknown template: " + templateName);
+        template.process(model, out);
     }
 }
@@ -2,18 +2,67 @@ package uk.org.thehickses.countdown;
 
 import static org.assertj.core.api.Assertions.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.time.Duration;
 import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.cucumber.java.After;
 import io.cucumber.java.ParameterType;
+import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
 import io.cucumber.junit.platform.engine.Cucumber;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
 import uk.org.thehickses.countdown.Solver.Expression;
+import uk.org.thehickses.countdown.web.LightweightServer;
 
 @Cucumber
 public class SolverTest
@@ -23,6 +72,54 @@ public class SolverTest
         public int target;
         public int[] numbers;
         public Expression result;
+        public SolutionCache cache;
+        public SolverExecutor executor;
+        public RuntimeException exception;
+        public final CountDownLatch release = new CountDownLatch(1);
+        public long solveCount;
+        public long expressionCount;
+        public long commutativePruned;
+        public long associativePruned;
+        public long candidateCount;
+        public List<Map<String, Object>> batchResults;
+        public boolean complete;
+        public Rules rules;
+        public TargetTable targetTable;
+        public int requestCount;
+        public int solveCalls;
+        public List<Expression> requestResults;
+        public List<Throwable> requestFailures;
+        public List<CompletableFuture<Expression>> asyncRequests;
+        public final CountDownLatch searchCancelled = new CountDownLatch(1);
+        public Recording recording;
+        public List<RecordedEvent> recordedEvents;
+        public List<String> kernelMismatches;
+        public List<String> permutations;
+        public List<String> workItems;
+        public final List<Process> workerProcesses = new ArrayList<>();
+        public final List<InetSocketAddress> workerAddresses = new ArrayList<>();
+        public ServerSocket failingWorker;
+        public final AtomicInteger failingWorkerRequests = new AtomicInteger();
+        public ServerSocket misbehavingWorker;
+        public final List<String> misbehavingWorkerRequests = new CopyOnWriteArrayList<>();
+        public ShardWorker shardWorker;
+        public ShardCoordinator coordinator;
+        public LightweightServer lightweightServer;
+        public HttpResponse<String> response;
+        public long memoryBudget;
+        public Solver.MemoryBoundedResult memoryBoundedResult;
+        public IncrementalSolver incrementalSolver;
+        public IncrementalSolvers incrementalSolvers;
+        public AnswerTable answerTable;
+    }
+
+    // The registry to which the solver metrics are published, as Spring Boot does for the web
+    // application.
+    private static final MeterRegistry METRICS = new SimpleMeterRegistry();
+
+    static
+    {
+        Metrics.addRegistry(METRICS);
     }
 
     private final TestContext context;
@@ -54,6 +151,457 @@ public class SolverTest
         context.result = new Solver(target, numbers).solve();
     }
 
+    @Given("a solution cache with capacity {int}")
+    public void createCache(int capacity)
+    {
+        context.cache = new SolutionCache(capacity);
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} using the cache")
+    public void callSolverUsingCache(int target, int[] numbers)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        context.result = new Solver(target, numbers).solve(context.cache);
+    }
+
+    @When("{int} requests for target number {int} and numbers {ints} are made at the same time through the cache")
+    public void concurrentRequests(int count, int target, int[] numbers)
+    {
+        concurrentRequests(count, target, numbers, false);
+    }
+
+    @When("{int} requests for target number {int} and numbers {ints} are made at the same time through the cache, and the solve is cancelled")
+    public void concurrentRequestsCancelled(int count, int target, int[] numbers)
+    {
+        concurrentRequests(count, target, numbers, true);
+    }
+
+    private void concurrentRequests(int count, int target, int[] numbers, boolean cancel)
+    {
+        context.requestCount = count;
+        var solveCalls = new AtomicInteger();
+        Supplier<Expression> solver = () ->
+            {
+                solveCalls.incrementAndGet();
+                // Don't finish until all the other requests are waiting for this solve.
+                var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (context.cache.getCoalesced() < count - 1 && System.nanoTime() < deadline)
+                    Thread.onSpinWait();
+                if (cancel)
+                    throw new CancellationException("Search did not complete");
+                return new Solver(target, numbers).solve();
+            };
+        var threads = Executors.newFixedThreadPool(count);
+        try
+        {
+            var requests = IntStream.range(0, count)
+                    .mapToObj(i -> CompletableFuture
+                            .supplyAsync(() -> context.cache.get(target, numbers, solver), threads))
+                    .collect(Collectors.toList());
+            context.requestResults = new ArrayList<>();
+            context.requestFailures = new ArrayList<>();
+            for (var request : requests)
+            {
+                try
+                {
+                    context.requestResults.add(request.join());
+                }
+                catch (CompletionException ex)
+                {
+                    context.requestFailures.add(ex.getCause());
+                }
+            }
+        }
+        finally
+        {
+            threads.shutdown();
+        }
+        context.solveCalls = solveCalls.get();
+    }
+
+    @Then("the game is solved once, and every request gets the solution")
+    public void everyRequestSolved()
+    {
+        assertThat(context.solveCalls).isEqualTo(1);
+        assertThat(context.requestFailures).isEmpty();
+        assertThat(context.requestResults).hasSize(context.requestCount)
+                .allSatisfy(result -> assertThat(result).isSameAs(context.requestResults.get(0)));
+        assertThat(context.requestResults.get(0).value).isEqualTo(378);
+    }
+
+    @Then("the game is solved once, and every request is cancelled")
+    public void everyRequestCancelled()
+    {
+        assertThat(context.solveCalls).isEqualTo(1);
+        assertThat(context.requestResults).isEmpty();
+        assertThat(context.requestFailures).hasSize(context.requestCount)
+                .allSatisfy(ex -> assertThat(ex).isInstanceOf(CancellationException.class));
+    }
+
+    @Then("the cache has coalesced {int} request(s)")
+    public void cacheCoalesced(int count)
+    {
+        assertThat(context.cache.getCoalesced()).isEqualTo(count);
+    }
+
+    @When("{int} requests for a game which takes a long time to solve are made through the cache without waiting")
+    public void asyncRequests(int count)
+    {
+        context.asyncRequests = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            context.asyncRequests.add(context.cache.getAsync(999, new int[] { 1, 2, 3, 4, 5, 6 },
+                    () -> context.executor.submit(c ->
+                        {
+                            context.solveCalls++;
+                            while (!c.isCancelled())
+                                sleep(1);
+                            context.searchCancelled.countDown();
+                            return null;
+                        })));
+    }
+
+    private static void sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    @When("{int} of the requests (is/are) withdrawn")
+    public void withdrawRequests(int count)
+    {
+        context.asyncRequests.stream()
+                .filter(request -> !request.isDone())
+                .limit(count)
+                .forEach(request -> request.cancel(true));
+    }
+
+    @Then("the solve is still running")
+    public void solveRunning() throws InterruptedException
+    {
+        assertThat(context.searchCancelled.await(100, TimeUnit.MILLISECONDS)).isFalse();
+    }
+
+    @Then("the solve is cancelled, and the game is not cached")
+    public void solveCancelled() throws InterruptedException
+    {
+        assertThat(context.searchCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(context.solveCalls).isEqualTo(1);
+        assertThat(context.executor.getTimeouts()).isEqualTo(0);
+        assertThat(context.asyncRequests).allSatisfy(request -> assertThat(request).isCancelled());
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (context.executor.getActiveCount() > 0 && System.nanoTime() < deadline)
+            sleep(1);
+        assertThat(context.executor.getActiveCount()).isEqualTo(0);
+        assertThat(context.cache.getSize()).isEqualTo(0);
+    }
+
+    @When("a search which does not stop as soon as it is cancelled is submitted to the executor and cancelled")
+    public void submitAndCancelSlowSearch() throws InterruptedException
+    {
+        var started = new CountDownLatch(1);
+        var search = context.executor.submit(c ->
+            {
+                started.countDown();
+                while (!c.isCancelled())
+                    sleep(1);
+                context.searchCancelled.countDown();
+                awaitRelease();
+                return null;
+            });
+        started.await();
+        search.cancel(true);
+        assertThat(context.searchCancelled.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Then("the search is still running, and another search is rejected as busy")
+    public void cancelledSearchRunning()
+    {
+        sleep(100);
+        assertThat(context.executor.getActiveCount()).isEqualTo(1);
+        assertThatThrownBy(() -> context.executor.solve(c -> null))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @When("the cancelled search stops")
+    public void stopCancelledSearch()
+    {
+        context.release.countDown();
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (context.executor.getActiveCount() > 0 && System.nanoTime() < deadline)
+            sleep(1);
+    }
+
+    @Then("another search is run by the executor")
+    public void anotherSearchRun()
+    {
+        String result = context.executor.solve(c -> "done");
+        assertThat(result).isEqualTo("done");
+    }
+
+    @Given("a solver executor with {int} concurrent solve(s), a queue of {int} and a deadline of {int} ms")
+    public void createExecutor(int maxConcurrentSolves, int queueCapacity, int deadline)
+    {
+        context.executor = new SolverExecutor(maxConcurrentSolves, queueCapacity, 2,
+                Duration.ofMillis(deadline));
+    }
+
+    @Given("the executor is busy")
+    public void makeExecutorBusy() throws InterruptedException
+    {
+        var started = new CountDownLatch(1);
+        new Thread(() -> context.executor.solve(c ->
+            {
+                started.countDown();
+                awaitRelease();
+                return null;
+            })).start();
+        started.await();
+    }
+
+    private void awaitRelease()
+    {
+        try
+        {
+            context.release.await();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread()
+                    .interrupt();
+        }
+    }
+
+    @After
+    public void shutDownExecutor()
+    {
+        context.release.countDown();
+        if (context.executor != null)
+            context.executor.shutdown();
+    }
+
+    @Given("a flight recording of the solver events is running")
+    public void startRecording()
+    {
+        context.recording = new Recording();
+        Stream.of("Solve", "Phase", "Prune")
+                .forEach(name -> context.recording.enable("uk.org.thehickses.countdown." + name));
+        context.recording.start();
+    }
+
+    @After
+    public void closeRecording()
+    {
+        if (context.recording != null)
+            context.recording.close();
+    }
+
+    private List<RecordedEvent> recordedEvents(String name) throws IOException
+    {
+        if (context.recordedEvents == null)
+        {
+            context.recording.stop();
+            var file = Files.createTempFile("countdown", ".jfr");
+            try
+            {
+                context.recording.dump(file);
+                context.recordedEvents = RecordingFile.readAllEvents(file);
+            }
+            finally
+            {
+                Files.delete(file);
+            }
+        }
+        return context.recordedEvents.stream()
+                .filter(e -> e.getEventType()
+                        .getName()
+                        .equals("uk.org.thehickses.countdown." + name))
+                .collect(Collectors.toList());
+    }
+
+    @Then("the solve is recorded as a flight recorder event using the {word} strategy")
+    public void solveRecorded(String strategy) throws IOException
+    {
+        assertThat(recordedEvents("Solve")).singleElement()
+                .satisfies(e ->
+                    {
+                        assertThat(e.getInt("target")).isEqualTo(context.target);
+                        assertThat(e.getString("numbers"))
+                                .isEqualTo(Arrays.toString(context.numbers));
+                        assertThat(e.getString("strategy")).isEqualTo(strategy);
+                        assertThat(e.getInt("difference")).isEqualTo(context.result.difference);
+                        assertThat(e.getInt("numbersUsed"))
+                                .isEqualTo(context.result.numbers.length);
+                        assertThat(e.getBoolean("cancelled")).isFalse();
+                        assertThat(e.getDuration()).isPositive();
+                    });
+    }
+
+    @Then("pruning decisions are recorded as flight recorder events for rules {word}")
+    public void pruningRulesRecorded(String rules) throws IOException
+    {
+        // The decisions are sampled, so only the rules which prune many combinations in this game
+        // are certain to be recorded.
+        assertThat(recordedEvents("Prune").stream()
+                .map(e -> e.getString("rule"))
+                .distinct()).contains(rules.split(","));
+    }
+
+    @Then("the recorded pruning decisions by the rules on both operands match their operands")
+    public void pruningRulesMatchOperands() throws IOException
+    {
+        recordedEvents("Prune").stream()
+                .filter(e -> e.getInt("rightOperand") >= 0)
+                .forEach(e ->
+                    {
+                        int a = e.getInt("leftOperand");
+                        int b = e.getInt("rightOperand");
+                        switch (e.getString("rule"))
+                        {
+                        case "not-positive":
+                            assertThat(a).isLessThanOrEqualTo(b);
+                            break;
+                        case "equals-right":
+                            assertThat(e.getString("operator")
+                                    .equals("SUBTRACT") ? a - b : a / b).isEqualTo(b);
+                            break;
+                        case "identity":
+                            assertThat(b).isEqualTo(1);
+                            break;
+                        case "indivisible":
+                            assertThat(a % b).isNotZero();
+                            break;
+                        default:
+                            assertThat(e.getString("rule")).isEqualTo("overflow");
+                        }
+                    });
+    }
+
+    @Then("the search is recorded as flight recorder events for phases {word}")
+    public void phasesRecorded(String phases) throws IOException
+    {
+        assertThat(recordedEvents("Phase").stream()
+                .map(e -> e.getString("phase"))
+                .distinct()).containsExactlyInAnyOrder(phases.split(","));
+    }
+
+    @When("I call the solver through the executor with target number {int} and numbers {ints}")
+    public void callSolverThroughExecutor(int target, int[] numbers)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        try
+        {
+            context.result = context.executor
+                    .solve(c -> new Solver(target, numbers).solve(Solver.Strategy.PRIMITIVE, c));
+        }
+        catch (RuntimeException ex)
+        {
+            context.exception = ex;
+        }
+    }
+
+    @When("I cancel a search that cannot be cancelled, and call the solver with target number {int} and numbers {ints}")
+    public void callSolverAfterCancellingNone(int target, int[] numbers)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        Cancellation.NONE.cancel();
+        context.result = new Solver(target, numbers).solve(Solver.Strategy.PRIMITIVE,
+                Cancellation.NONE);
+    }
+
+    @Then("the search is rejected as busy")
+    public void searchRejected()
+    {
+        assertThat(context.exception).isInstanceOf(RejectedExecutionException.class);
+        assertThat(context.executor.getRejections()).isEqualTo(1);
+    }
+
+    @Then("the search is cancelled")
+    public void searchCancelled()
+    {
+        assertThat(context.exception).isInstanceOf(CancellationException.class);
+        assertThat(context.executor.getTimeouts()).isEqualTo(1);
+    }
+
+    @When("I look up target number {int} and numbers {ints} in an answer table")
+    public void lookUpAnswer(int target, int[] numbers) throws IOException
+    {
+        context.target = target;
+        context.numbers = numbers;
+        var file = Files.createTempFile("answers", ".bin");
+        try
+        {
+            AnswerTable.generate(file, List.of(numbers, new int[] { 1, 1, 2, 2, 3, 3 }));
+            context.result = AnswerTable.open(file)
+                    .lookup(target, numbers);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @When("I open an answer table file containing {int} bytes")
+    public void openAnswerTable(int size) throws IOException
+    {
+        var file = Files.createTempFile("answers", ".bin");
+        try
+        {
+            Files.write(file, new byte[size]);
+            AnswerTable.open(file);
+        }
+        catch (IllegalArgumentException ex)
+        {
+            context.exception = ex;
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Then("the file is rejected as not an answer table")
+    public void answerTableRejected()
+    {
+        assertThat(context.exception).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Given("an answer table of the numbers {ints}")
+    public void answerTable(int[] numbers) throws IOException
+    {
+        var file = Files.createTempFile("answers", ".bin");
+        try
+        {
+            AnswerTable.generate(file, List.<int[]> of(numbers));
+            context.answerTable = AnswerTable.open(file);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Then("the answer table covers target number {int} and numbers {ints}")
+    public void answerTableCovers(int target, int[] numbers)
+    {
+        assertThat(context.answerTable.covers(target, numbers)).isTrue();
+    }
+
+    @Then("the answer table does not cover target number {int} and numbers {ints}")
+    public void answerTableDoesNotCover(int target, int[] numbers)
+    {
+        assertThat(context.answerTable.covers(target, numbers)).isFalse();
+    }
+
     @Then("a solution is found whose value equals the target number and which uses {int} numbers")
     public void solutionFound(int count)
     {
@@ -84,6 +632,912 @@ public class SolverTest
                         Collectors.reducing(0, e -> 1, Integer::sum)));
     }
 
+    @Then("the {word} strategy finds the same solution")
+    public void sameSolutionFound(String strategy)
+    {
+        var result = new Solver(context.target, context.numbers)
+                .solve(Solver.Strategy.valueOf(strategy));
+        if (context.result == null)
+            assertThat(result).isNull();
+        else
+            assertThat(result).hasToString(context.result.toString());
+    }
+
+    @Then("the {word} strategy finds an equally good solution")
+    public void equallyGoodSolutionFound(String strategy)
+    {
+        var result = new Solver(context.target, context.numbers)
+                .solve(Solver.Strategy.valueOf(strategy));
+        if (context.result == null)
+            assertThat(result).isNull();
+        else
+        {
+            assertThat(result.difference).isEqualTo(context.result.difference);
+            assertThat(result.numbers.length).isEqualTo(context.result.numbers.length);
+            assertThat(result.parentheses).isEqualTo(context.result.parentheses);
+            assertIsSubsetOf(context.numbers).accept(result.numbers);
+        }
+    }
+
+    @When("I solve all targets for numbers {ints}")
+    public void solveAllTargets(int[] numbers)
+    {
+        context.numbers = numbers;
+        context.targetTable = Solver.solveAllTargets(numbers);
+    }
+
+    @Then("the table has solutions for targets {int} to {int}")
+    public void tableCoversTargets(int minTarget, int maxTarget)
+    {
+        assertThat(context.targetTable.getMinTarget()).isEqualTo(minTarget);
+        assertThat(context.targetTable.getMaxTarget()).isEqualTo(maxTarget);
+        assertThat(context.targetTable.getNumbers()).isEqualTo(context.numbers);
+    }
+
+    @Then("the solutions for targets {ints} are as good as those found by the {word} strategy")
+    public void tableSolutionsEquallyGood(int[] targets, String strategy)
+    {
+        for (var target : targets)
+        {
+            context.target = target;
+            context.result = context.targetTable.get(target);
+            if (context.result != null)
+                assertThat(context.result.difference)
+                        .isEqualTo(Math.abs(target - context.result.value));
+            equallyGoodSolutionFound(strategy);
+        }
+    }
+
+    @Given("the Vector API is available")
+    public void vectorApiAvailable()
+    {
+        assertThat(CombinationKernel.isVectorAvailable()).isTrue();
+    }
+
+    @When("{int} runs of random operands are combined by the vector and scalar kernels")
+    public void combineWithKernels(int runs)
+    {
+        var rand = new Random(1234);
+        // Values around the limits of the pruning rules: those whose sum, product, double or
+        // square is about Integer.MAX_VALUE.
+        int[] edges = { 1, 2, 3, 46340, 46341, Integer.MAX_VALUE / 2, Integer.MAX_VALUE / 2 + 1,
+                Integer.MAX_VALUE - 1, Integer.MAX_VALUE };
+        IntSupplier operand = () ->
+            {
+                switch (rand.nextInt(4))
+                {
+                case 0:
+                    return 1 + rand.nextInt(10);
+                case 1:
+                    return 1 + rand.nextInt(1000);
+                case 2:
+                    return Math.max(edges[rand.nextInt(edges.length)] - rand.nextInt(2), 1);
+                default:
+                    return 1 + rand.nextInt(Integer.MAX_VALUE);
+                }
+            };
+        var vector = CombinationKernel.vector();
+        var scalar = CombinationKernel.scalar();
+        context.kernelMismatches = new ArrayList<>();
+        for (int run = 0; run < runs; run++)
+        {
+            var a = operand.getAsInt();
+            var from = rand.nextInt(4);
+            var count = 1 + rand.nextInt(CombinationKernel.MAX_COUNT);
+            var b = IntStream.generate(operand)
+                    .limit(from + count)
+                    .toArray();
+            var vectorResults = new int[4][CombinationKernel.MAX_COUNT];
+            var vectorValid = new long[4];
+            vector.combine(a, b, from, count, vectorResults, vectorValid);
+            var scalarResults = new int[4][CombinationKernel.MAX_COUNT];
+            var scalarValid = new long[4];
+            scalar.combine(a, b, from, count, scalarResults, scalarValid);
+            for (int op = 0; op < 4; op++)
+                for (int j = 0; j < count; j++)
+                {
+                    var bit = 1L << j;
+                    var valid = (scalarValid[op] & bit) != 0;
+                    if (valid != ((vectorValid[op] & bit) != 0)
+                            || valid && scalarResults[op][j] != vectorResults[op][j])
+                        context.kernelMismatches.add(String.format("%d %s %d", a,
+                                Solver.Operator.values()[op].symbol, b[from + j]));
+                }
+        }
+    }
+
+    @Then("the kernels give the same results")
+    public void kernelsGiveSameResults()
+    {
+        assertThat(context.kernelMismatches).isEmpty();
+    }
+
+    @Then("the subset search finds the same solutions with the vector and scalar kernels")
+    public void subsetSearchKernelsAgree()
+    {
+        Function<CombinationKernel, SubsetSearch> search = kernel -> new SubsetSearch(
+                context.numbers, Cancellation.NONE, kernel);
+        var vector = CombinationKernel.vector();
+        var scalar = CombinationKernel.scalar();
+        assertThat(String.valueOf(search.apply(vector)
+                .solve(context.target))).isEqualTo(
+                        String.valueOf(search.apply(scalar)
+                                .solve(context.target)));
+        assertThat(String.valueOf(search.apply(vector)
+                .solveBackward(context.target))).isEqualTo(
+                        String.valueOf(search.apply(scalar)
+                                .solveBackward(context.target)));
+        // The solutions are identified by their positions in the subsets, so are only the same if
+        // the same entries are kept in the same order.
+        assertThat(search.apply(vector)
+                .solveAll(1, 10000)).containsExactly(search.apply(scalar)
+                        .solveAll(1, 10000));
+    }
+
+    @When("the permutations and work items of the numbers {ints} are split as far as possible")
+    public void splitPermutations(int[] numbers)
+    {
+        context.numbers = numbers;
+        context.permutations = new ArrayList<>();
+        context.workItems = new ArrayList<>();
+        var permutations = new Permutations(numbers);
+        visitSplitting(permutations.permutations(Arrays::toString), context.permutations::add);
+        visitSplitting(permutations.workItems(),
+                w -> context.workItems.add(Arrays.toString(w.indices) + " " + w.split));
+    }
+
+    // Consumes one element, splits, and visits the part split off and then the rest in the same
+    // way, so that the spliterator is split both before and while it generates each permutation.
+    private static <T> void visitSplitting(Spliterator<T> spliterator, Consumer<T> action)
+    {
+        while (spliterator.tryAdvance(action))
+        {
+            var prefix = spliterator.trySplit();
+            if (prefix != null)
+                visitSplitting(prefix, action);
+        }
+    }
+
+    @Then("every permutation and work item is visited exactly once, in depth-first order")
+    public void permutationsVisitedOnce()
+    {
+        var expected = new ArrayList<int[]>();
+        permute(context.numbers, new int[0], expected);
+        assertThat(context.permutations).containsExactlyElementsOf(expected.stream()
+                .map(Arrays::toString)
+                .collect(Collectors.toList()));
+        assertThat(context.workItems).containsExactlyElementsOf(expected.stream()
+                .flatMap(p -> IntStream.range(Math.min(1, p.length - 1), Math.max(1, p.length))
+                        .mapToObj(split -> Arrays.toString(p) + " " + split))
+                .collect(Collectors.toList()));
+    }
+
+    // Adds the permutations that start with the specified indices, recursively, skipping an index
+    // if an earlier unused one has the same value.
+    private static void permute(int[] values, int[] prefix, List<int[]> permutations)
+    {
+        for (int i = 0; i < values.length; i++)
+        {
+            var index = i;
+            if (IntStream.of(prefix)
+                    .anyMatch(p -> p == index)
+                    || IntStream.range(0, i)
+                            .anyMatch(j -> values[j] == values[index] && IntStream.of(prefix)
+                                    .noneMatch(p -> p == j)))
+                continue;
+            var permutation = Arrays.copyOf(prefix, prefix.length + 1);
+            permutation[prefix.length] = i;
+            permutations.add(permutation);
+            permute(values, permutation, permutations);
+        }
+    }
+
+    @Given("{int} shard worker process(es) is/are running")
+    public void startShardWorkers(int count) throws Exception
+    {
+        for (int i = 0; i < count; i++)
+            context.workerAddresses.add(startShardWorker());
+    }
+
+    // Starts a worker in a new JVM with the same class path as the tests, and waits for it to
+    // report the port on which it is listening.
+    private InetSocketAddress startShardWorker() throws Exception
+    {
+        var java = Paths.get(System.getProperty("java.home"), "bin", "java");
+        var process = new ProcessBuilder(java.toString(), "-cp",
+                System.getProperty("java.class.path"), ShardWorker.class.getName(), "0")
+                        .redirectErrorStream(true)
+                        .start();
+        context.workerProcesses.add(process);
+        var port = new CompletableFuture<Integer>();
+        var pattern = Pattern.compile("Listening on port (\\d+)");
+        var reader = new Thread(() ->
+            {
+                // The output is read to the end, so that the worker is not blocked writing its log.
+                try (var output = new BufferedReader(new InputStreamReader(
+                        process.getInputStream(), StandardCharsets.UTF_8)))
+                {
+                    for (var line = output.readLine(); line != null; line = output.readLine())
+                    {
+                        var matcher = pattern.matcher(line);
+                        if (matcher.find())
+                            port.complete(Integer.parseInt(matcher.group(1)));
+                    }
+                }
+                catch (IOException ex)
+                {
+                }
+                port.completeExceptionally(new IllegalStateException("Worker did not start"));
+            });
+        reader.setDaemon(true);
+        reader.start();
+        return new InetSocketAddress("localhost", port.get(1, TimeUnit.MINUTES));
+    }
+
+    @Given("a shard worker which fails on its first request is running")
+    public void startFailingShardWorker() throws IOException
+    {
+        var serverSocket = new ServerSocket(0);
+        context.failingWorker = serverSocket;
+        context.workerAddresses
+                .add(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+        var thread = new Thread(() ->
+            {
+                // Accepts one connection, and closes it and stops listening when the first request
+                // is received, as a worker would if it crashed.
+                try (serverSocket; var socket = serverSocket.accept())
+                {
+                    var out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                            StandardCharsets.UTF_8), true);
+                    out.println(ShardProtocol.GREETING + " 1");
+                    var in = new BufferedReader(
+                            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                    if (in.readLine() != null)
+                        context.failingWorkerRequests.incrementAndGet();
+                }
+                catch (IOException ex)
+                {
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Given("a shard worker which never replies is running")
+    public void startSilentShardWorker() throws IOException
+    {
+        startMisbehavingShardWorker(false);
+    }
+
+    @Given("a shard worker which closes the connection on every request is running")
+    public void startDisconnectingShardWorker() throws IOException
+    {
+        startMisbehavingShardWorker(true);
+    }
+
+    // Accepts any number of connections, and records the requests received on them; each
+    // connection is either closed when a request is received, or left open with no reply sent.
+    private void startMisbehavingShardWorker(boolean disconnect) throws IOException
+    {
+        var serverSocket = new ServerSocket(0);
+        context.misbehavingWorker = serverSocket;
+        context.workerAddresses
+                .add(new InetSocketAddress("localhost", serverSocket.getLocalPort()));
+        var thread = new Thread(() ->
+            {
+                try (serverSocket)
+                {
+                    while (true)
+                    {
+                        var socket = serverSocket.accept();
+                        var connection = new Thread(() ->
+                            {
+                                try (socket)
+                                {
+                                    var out = new PrintWriter(new OutputStreamWriter(
+                                            socket.getOutputStream(), StandardCharsets.UTF_8),
+                                            true);
+                                    out.println(ShardProtocol.GREETING + " 1");
+                                    var in = new BufferedReader(new InputStreamReader(
+                                            socket.getInputStream(), StandardCharsets.UTF_8));
+                                    for (var line = in.readLine(); line != null; line = in
+                                            .readLine())
+                                    {
+                                        context.misbehavingWorkerRequests.add(line);
+                                        if (disconnect)
+                                            return;
+                                    }
+                                }
+                                catch (IOException ex)
+                                {
+                                }
+                            });
+                        connection.setDaemon(true);
+                        connection.start();
+                    }
+                }
+                catch (IOException ex)
+                {
+                }
+            });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Given("a shard worker is running in this process")
+    public void startShardWorkerInProcess() throws IOException
+    {
+        context.shardWorker = new ShardWorker(0);
+        var thread = new Thread(context.shardWorker::run);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @When("a shard of target number {int} and numbers {ints} is sent to the worker, and the connection is closed before the reply")
+    public void sendShardAndDisconnect(int target, int[] numbers) throws IOException
+    {
+        try (var socket = new Socket("localhost", context.shardWorker.getPort()))
+        {
+            var in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertThat(in.readLine()).startsWith(ShardProtocol.GREETING);
+            var out = new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8),
+                    true);
+            out.println(new ShardProtocol.Request(Solver.Strategy.PRIMITIVE, 0, target, numbers));
+        }
+    }
+
+    @Then("the worker cancels the search of the shard")
+    public void shardSearchCancelled() throws InterruptedException
+    {
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (context.shardWorker.getCancellations() == 0 && System.nanoTime() < deadline)
+            Thread.sleep(10);
+        assertThat(context.shardWorker.getCancellations()).isEqualTo(1);
+    }
+
+    @Given("a shard coordinator is connected to the shard workers")
+    public void connectShardCoordinator() throws IOException
+    {
+        context.coordinator = new ShardCoordinator(context.workerAddresses, Duration.ofSeconds(30));
+    }
+
+    @When("shard worker process {int} is stopped")
+    public void stopShardWorker(int index) throws InterruptedException
+    {
+        context.workerProcesses.get(index - 1)
+                .destroyForcibly()
+                .waitFor();
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} using the {word} strategy sharded across the workers")
+    public void callSolverSharded(int target, int[] numbers, String strategy) throws IOException
+    {
+        if (context.coordinator == null)
+            connectShardCoordinator();
+        context.target = target;
+        context.numbers = numbers;
+        context.result = new Solver(target, numbers).solve(Solver.Strategy.valueOf(strategy),
+                context.coordinator);
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} using the {word} strategy sharded across the workers with a timeout of {int} second(s)")
+    public void callSolverShardedWithTimeout(int target, int[] numbers, String strategy,
+            int timeout) throws IOException
+    {
+        context.coordinator = new ShardCoordinator(context.workerAddresses,
+                Duration.ofSeconds(timeout));
+        try
+        {
+            callSolverSharded(target, numbers, strategy);
+        }
+        catch (RuntimeException ex)
+        {
+            context.exception = ex;
+        }
+    }
+
+    @Then("no shard was sent again to the worker which did not reply")
+    public void shardNotResentAfterTimeout()
+    {
+        assertThat(context.misbehavingWorkerRequests).isNotEmpty()
+                .doesNotHaveDuplicates();
+        assertThat(context.coordinator.getReassignments())
+                .isEqualTo(context.misbehavingWorkerRequests.size());
+    }
+
+    @Then("the sharded search fails with a message containing {string}, after {int} request(s) to the worker")
+    public void shardedSearchFailed(String message, int requests)
+    {
+        assertThat(context.exception).isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(message);
+        assertThat(context.misbehavingWorkerRequests).hasSize(requests);
+    }
+
+    @Then("the shard that the failing worker was sent was searched by another worker")
+    public void shardReassigned()
+    {
+        assertThat(context.failingWorkerRequests).hasValue(1);
+        assertThat(context.coordinator.getReassignments()).isEqualTo(1);
+    }
+
+    @After
+    public void stopShardWorkers() throws IOException
+    {
+        if (context.coordinator != null)
+            context.coordinator.close();
+        if (context.failingWorker != null)
+            context.failingWorker.close();
+        if (context.misbehavingWorker != null)
+            context.misbehavingWorker.close();
+        if (context.shardWorker != null)
+            context.shardWorker.close();
+        context.workerProcesses.forEach(Process::destroyForcibly);
+    }
+
+    @Given("the lightweight server is running")
+    public void startLightweightServer() throws IOException
+    {
+        context.lightweightServer = new LightweightServer(
+                LightweightServer.properties(new String[] { "--countdown.warmup=false" }), 0);
+        context.lightweightServer.start();
+    }
+
+    @When("I request {string} from the lightweight server")
+    public void requestFromLightweightServer(String path) throws Exception
+    {
+        context.response = HttpClient.newHttpClient()
+                .send(HttpRequest.newBuilder(URI.create(
+                        "http://localhost:" + context.lightweightServer.getPort() + path))
+                        .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @When("I post the form {string} to the lightweight server")
+    public void postFormToLightweightServer(String form) throws Exception
+    {
+        context.response = HttpClient.newHttpClient()
+                .send(HttpRequest.newBuilder(URI.create(
+                        "http://localhost:" + context.lightweightServer.getPort() + "/"))
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString(form))
+                        .build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Then("the page does not send the source numbers to the server as they are entered")
+    public void pageIsNotIncremental()
+    {
+        assertThat(context.response.statusCode()).isEqualTo(200);
+        assertThat(context.response.body()).contains("<form")
+                .doesNotContain("/numbers");
+    }
+
+    @Then("the response has status {int} and shows the messages {string}")
+    public void responseShowsMessages(int status, String messages)
+    {
+        assertThat(context.response.statusCode()).isEqualTo(status);
+        var matcher = Pattern.compile("<p>(.*)</p>")
+                .matcher(context.response.body());
+        var shown = new ArrayList<String>();
+        while (matcher.find())
+            shown.add(matcher.group(1));
+        assertThat(shown).containsExactly(Stream.of(messages.split(";"))
+                .map(String::trim)
+                .filter(m -> !m.isEmpty())
+                .toArray(String[]::new));
+    }
+
+    @After
+    public void stopLightweightServer()
+    {
+        if (context.lightweightServer != null)
+            context.lightweightServer.stop();
+    }
+
+    @Then("the cache has {int} hit(s), {int} miss(es) and {int} eviction(s)")
+    public void cacheCounts(int hits, int misses, int evictions)
+    {
+        assertThat(context.cache.getHits()).isEqualTo(hits);
+        assertThat(context.cache.getMisses()).isEqualTo(misses);
+        assertThat(context.cache.getEvictions()).isEqualTo(evictions);
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} using the {word} strategy")
+    public void callSolverWithStrategy(int target, int[] numbers, String strategy)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        context.solveCount = METRICS.get("countdown.solve").timer().count();
+        context.expressionCount = counterValue("countdown.expressions.generated");
+        context.candidateCount = counterValue("countdown.candidates");
+        context.commutativePruned = prunedCount("commutative");
+        context.associativePruned = prunedCount("associative");
+        context.result = new Solver(target, numbers).solve(Solver.Strategy.valueOf(strategy));
+    }
+
+    @Then("the solve is recorded in the metrics")
+    public void solveRecorded()
+    {
+        assertThat(METRICS.get("countdown.solve").timer().count())
+                .isGreaterThan(context.solveCount);
+        assertThat(counterValue("countdown.expressions.generated"))
+                .isGreaterThan(context.expressionCount);
+        assertThat(counterValue("countdown.candidates")).isGreaterThan(context.candidateCount);
+    }
+
+    private static long counterValue(String name)
+    {
+        return (long) METRICS.get(name).functionCounter().count();
+    }
+
+    private static long prunedCount(String rule)
+    {
+        return (long) METRICS.get("countdown.combinations.pruned")
+                .tag("rule", rule)
+                .functionCounter()
+                .count();
+    }
+
+    @Then("the solution is {string}")
+    public void solutionIs(String solution)
+    {
+        assertThat(context.result).isNotNull();
+        assertThat(context.result.toString()).isEqualTo(solution);
+    }
+
+    @Then("combinations are pruned by the commutative and associative rules")
+    public void combinationsPruned()
+    {
+        assertThat(prunedCount("commutative")).isGreaterThan(context.commutativePruned);
+        assertThat(prunedCount("associative")).isGreaterThan(context.associativePruned);
+    }
+
+    @When("I solve the following games in {word} order")
+    public void solveBatch(String order, String games)
+    {
+        var results = new ArrayList<String>();
+        var batchSolver = new BatchSolver(Rules.STANDARD, 2);
+        try
+        {
+            batchSolver.solve(games.lines(), BatchSolver.Order.valueOf(order),
+                    solver -> solver.solve(Solver.Strategy.SUBSETS), results::add);
+        }
+        finally
+        {
+            batchSolver.shutdown();
+        }
+        context.batchResults = results.stream()
+                .map(SolverTest::parseJson)
+                .collect(Collectors.toList());
+    }
+
+    @When("I solve the following games in {word} order through a solver executor with a deadline of {int} ms")
+    public void solveBatchThroughExecutor(String order, int deadline, String games)
+    {
+        var results = new ArrayList<String>();
+        var batchSolver = new BatchSolver(Rules.STANDARD, 2);
+        context.executor = new SolverExecutor(1, 4, 1, Duration.ofMillis(deadline));
+        try
+        {
+            batchSolver.solve(games.lines(), BatchSolver.Order.valueOf(order),
+                    solver -> context.executor.solve(solver::solve), results::add);
+        }
+        finally
+        {
+            batchSolver.shutdown();
+        }
+        context.batchResults = results.stream()
+                .map(SolverTest::parseJson)
+                .collect(Collectors.toList());
+    }
+
+    private static Map<String, Object> parseJson(String json)
+    {
+        try
+        {
+            return new ObjectMapper().readValue(json, new TypeReference<Map<String, Object>>()
+            {
+            });
+        }
+        catch (JsonProcessingException ex)
+        {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    @Then("the results are in input order")
+    public void batchResultsInInputOrder()
+    {
+        assertThat(context.batchResults).extracting(r -> r.get("index"))
+                .isSorted();
+    }
+
+    @Then("the results are:")
+    public void batchResults(List<Map<String, String>> expected)
+    {
+        var results = context.batchResults.stream()
+                .sorted(Comparator.comparing(r -> (Integer) r.get("index")))
+                .collect(Collectors.toList());
+        assertThat(results).hasSameSizeAs(expected);
+        IntStream.range(0, results.size())
+                .forEach(i ->
+                    {
+                        var result = results.get(i);
+                        var row = expected.get(i);
+                        assertThat(result.get("index")).isEqualTo(i);
+                        var value = row.get("value");
+                        assertThat(result.get("value"))
+                                .isEqualTo(value == null ? null : Integer.valueOf(value));
+                        assertThat(result.get("error")).isEqualTo(row.get("error"));
+                    });
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} using the {word} strategy and a time budget of {int} ms")
+    public void callSolverWithBudget(int target, int[] numbers, String strategy, int budget)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        var result = new Solver(target, numbers).solveWithin(Solver.Strategy.valueOf(strategy),
+                Duration.ofMillis(budget));
+        context.result = result.solution;
+        context.complete = result.complete;
+    }
+
+    @Then("the search completes")
+    public void searchCompletes()
+    {
+        assertThat(context.complete).isTrue();
+    }
+
+    @Then("the search does not complete")
+    public void searchDoesNotComplete()
+    {
+        assertThat(context.complete).isFalse();
+    }
+
+    @Then("any solution found is valid")
+    public void anySolutionValid()
+    {
+        if (context.result != null)
+        {
+            assertThat(context.result.difference).isLessThanOrEqualTo(10);
+            assertIsSubsetOf(context.numbers).accept(context.result.numbers);
+        }
+    }
+
+    /**
+     * Solves the game in a pool with a parallelism of 1, so that only one branch of the search
+     * holds storage at a time, and the storage needed does not depend on the number of
+     * processors.
+     */
+    @When("I call the solver with target number {int} and numbers {ints} and a memory budget of {long} bytes")
+    public void callSolverWithMemoryBudget(int target, int[] numbers, long budget) throws Exception
+    {
+        context.target = target;
+        context.numbers = numbers;
+        context.memoryBudget = budget;
+        var pool = new ForkJoinPool(1);
+        try
+        {
+            context.memoryBoundedResult = pool
+                    .submit(() -> new Solver(target, numbers).solveWithinMemory(budget))
+                    .get();
+            context.result = context.memoryBoundedResult.solution;
+        }
+        catch (ExecutionException ex)
+        {
+            if (!(ex.getCause() instanceof MemoryBudget.ExceededException))
+                throw ex;
+            context.exception = (RuntimeException) ex.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Then("the game is solved using the {word} strategy within the memory budget")
+    public void solvedWithinMemoryBudget(String strategy)
+    {
+        assertThat(context.exception).isNull();
+        assertThat(context.memoryBoundedResult.strategy)
+                .isEqualTo(Solver.Strategy.valueOf(strategy));
+        assertThat(context.memoryBoundedResult.peakRetainedBytes).isPositive()
+                .isLessThanOrEqualTo(context.memoryBudget);
+    }
+
+    @Then("the search fails because it exceeds the memory budget")
+    public void memoryBudgetExceeded()
+    {
+        assertThat(context.exception).isInstanceOf(MemoryBudget.ExceededException.class);
+    }
+
+    @Given("an incremental solver with a memory budget of {long} bytes")
+    public void incrementalSolver(long budget)
+    {
+        context.incrementalSolver = new IncrementalSolver(budget);
+    }
+
+    /**
+     * Updates the incremental solver with the numbers entered so far as each is entered, and
+     * records the number of expressions generated when the last one is entered.
+     */
+    @When("I enter the numbers {ints} one at a time")
+    public void enterNumbers(int[] numbers)
+    {
+        context.numbers = numbers;
+        try
+        {
+            for (int i = 1; i <= numbers.length; i++)
+            {
+                var expressions = counterValue("countdown.expressions.generated");
+                context.incrementalSolver.update(Arrays.copyOf(numbers, i));
+                context.expressionCount = counterValue("countdown.expressions.generated")
+                        - expressions;
+            }
+        }
+        catch (MemoryBudget.ExceededException ex)
+        {
+            context.exception = ex;
+        }
+    }
+
+    @When("I enter the numbers {ints} after the request has been cancelled")
+    public void enterNumbersCancelled(int[] numbers)
+    {
+        context.numbers = numbers;
+        var cancellation = new Cancellation();
+        cancellation.cancel();
+        try
+        {
+            context.incrementalSolver.update(numbers, cancellation);
+        }
+        catch (CancellationException ex)
+        {
+            context.exception = ex;
+        }
+    }
+
+    @Then("the incremental solver is cancelled and discards its values")
+    public void incrementalSolverCancelled()
+    {
+        assertThat(context.exception).isInstanceOf(CancellationException.class);
+        assertThat(context.incrementalSolver.getNumbers()).isEmpty();
+    }
+
+    @When("I solve target number {int} with the incremental solver")
+    public void solveIncrementally(int target)
+    {
+        context.target = target;
+        context.result = new Solver(target, context.numbers).solve(context.incrementalSolver);
+    }
+
+    @Then("entering the last number generates fewer expressions than calculating all the values")
+    public void lastNumberGeneratesFewerExpressions()
+    {
+        var expressions = counterValue("countdown.expressions.generated");
+        new SubsetSearch(context.numbers, Cancellation.NONE).evaluateAll();
+        assertThat(context.expressionCount).isPositive()
+                .isLessThan(counterValue("countdown.expressions.generated") - expressions);
+    }
+
+    @Then("the incremental solver exceeds its memory budget and discards its values")
+    public void incrementalSolverExceedsBudget()
+    {
+        assertThat(context.exception).isInstanceOf(MemoryBudget.ExceededException.class);
+        assertThat(context.incrementalSolver.getNumbers()).isEmpty();
+        assertThat(context.incrementalSolver.getRetainedBytes()).isLessThan(100);
+    }
+
+    @Given("incremental solvers for at most {int} sessions with an idle timeout of {int} ms")
+    public void incrementalSolvers(int capacity, int idleTimeout)
+    {
+        context.incrementalSolvers = new IncrementalSolvers(capacity,
+                Duration.ofMillis(idleTimeout), Long.MAX_VALUE);
+    }
+
+    @When("the sessions {string} use their incremental solvers")
+    public void sessionsUseIncrementalSolvers(String sessions)
+    {
+        Stream.of(sessions.split(","))
+                .forEach(context.incrementalSolvers::get);
+    }
+
+    @When("{int} ms pass")
+    public void timePasses(int ms) throws InterruptedException
+    {
+        Thread.sleep(ms);
+    }
+
+    @Then("the sessions {string} have incremental solvers")
+    public void sessionsHaveIncrementalSolvers(String sessions)
+    {
+        Stream.of(sessions.split(","))
+                .forEach(id -> assertThat(context.incrementalSolvers.find(id)).isPresent());
+    }
+
+    @Then("the session {string} has no incremental solver")
+    public void sessionHasNoIncrementalSolver(String session)
+    {
+        assertThat(context.incrementalSolvers.find(session)).isEmpty();
+    }
+
+    @When("session {string} enters the numbers {ints}")
+    public void sessionEntersNumbers(String session, int[] numbers)
+    {
+        context.incrementalSolvers.get(session)
+                .update(numbers);
+    }
+
+    @Then("the storage retained by the incremental solvers can be read while session {string} is updating its solver")
+    public void retainedBytesReadDuringUpdate(String session) throws Exception
+    {
+        var solver = context.incrementalSolvers.get(session);
+        var retained = solver.getRetainedBytes();
+        assertThat(retained).isPositive();
+        // An update holds the solver's lock for as long as it runs.
+        synchronized (solver)
+        {
+            assertThat(CompletableFuture.supplyAsync(context.incrementalSolvers::getRetainedBytes)
+                    .get(10, TimeUnit.SECONDS)).isEqualTo(retained);
+        }
+    }
+
+    @Then("{int} incremental solvers have been evicted and {int} have expired")
+    public void incrementalSolversDiscarded(int evictions, int expiries)
+    {
+        assertThat(context.incrementalSolvers.getEvictions()).isEqualTo(evictions);
+        assertThat(context.incrementalSolvers.getExpiries()).isEqualTo(expiries);
+    }
+
+    @Given("rules with targets from {int} to {int}, {int} source numbers, small numbers {ints} and large numbers {ints}")
+    public void rules(int minTarget, int maxTarget, int numberCount, int[] smallNumbers,
+            int[] largeNumbers)
+    {
+        context.rules = new Rules(minTarget, maxTarget, numberCount, smallNumbers, largeNumbers);
+    }
+
+    @When("I call the solver with target number {int} and numbers {ints} under the rules")
+    public void callSolverUnderRules(int target, int[] numbers)
+    {
+        context.target = target;
+        context.numbers = numbers;
+        context.result = Solver.instance(context.rules, IntStream
+                .concat(IntStream.of(target), IntStream.of(numbers))
+                .toArray())
+                .solve();
+    }
+
+    @When("I create a game with arguments {string} under the rules")
+    public void createGameUnderRules(String args)
+    {
+        try
+        {
+            var solver = Solver.instance(context.rules, args.split(" "));
+            context.target = solver.getTarget();
+            context.numbers = solver.getNumbers();
+        }
+        catch (IllegalArgumentException ex)
+        {
+            context.exception = ex;
+        }
+    }
+
+    @Then("the game is rejected with the message {string}")
+    public void gameRejected(String message)
+    {
+        assertThat(context.exception).isInstanceOf(IllegalArgumentException.class)
+                .hasMessage(message);
+    }
+
+    @Then("the game has a target number from {int} to {int} and {int} source numbers")
+    public void randomGame(int minTarget, int maxTarget, int numberCount)
+    {
+        assertThat(context.exception).isNull();
+        assertThat(context.target).isBetween(minTarget, maxTarget);
+        assertThat(context.numbers).hasSize(numberCount);
+    }
+
     @Then("no solution is found")
     public void noSolutionFound()
     {
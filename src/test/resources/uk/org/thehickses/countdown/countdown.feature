@@ -20,3 +20,457 @@ Feature: Countdown numbers solver
   Scenario: No solution found
     When I call the solver with target number 999 and numbers 1,2,3,4,5,6
     Then no solution is found
+
+  Scenario Outline: Strategies find the same solution
+    When I call the solver with target number <target> and numbers <numbers>
+    Then the <strategy> strategy finds the same solution
+
+  Examples:
+    | target | numbers            | strategy  |
+    | 378    | 50,7,4,3,2,1       | STREAM    |
+    | 827    | 25,8,5,8,1,2       | STREAM    |
+    | 954    | 50,75,25,100,5,8   | STREAM    |
+    | 999    | 1,2,3,4,5,6        | STREAM    |
+    | 834    | 10,9,8,7,6,5       | PRIMITIVE |
+    | 493    | 50,25,4,3,2,4      | PRIMITIVE |
+    | 954    | 50,75,25,100,5,8   | PRIMITIVE |
+    | 999    | 1,2,3,4,5,6        | PRIMITIVE |
+
+  Scenario Outline: Strategies find equally good solutions
+    When I call the solver with target number <target> and numbers <numbers>
+    Then the <strategy> strategy finds an equally good solution
+
+  Examples:
+    | target | numbers            | strategy |
+    | 834    | 10,9,8,7,6,5       | SUBSETS  |
+    | 493    | 50,25,4,3,2,4      | SUBSETS  |
+    | 401    | 10,4,5,2,3,3       | SUBSETS  |
+    | 954    | 50,75,25,100,5,8   | SUBSETS  |
+    | 999    | 1,2,3,4,5,6        | SUBSETS  |
+    | 834    | 10,9,8,7,6,5       | BACKWARD |
+    | 493    | 50,25,4,3,2,4      | BACKWARD |
+    | 401    | 10,4,5,2,3,3       | BACKWARD |
+    | 954    | 50,75,25,100,5,8   | BACKWARD |
+    | 999    | 1,2,3,4,5,6        | BACKWARD |
+
+  Scenario Outline: Solution looked up in an answer table
+    When I look up target number <target> and numbers <numbers> in an answer table
+    Then the SUBSETS strategy finds an equally good solution
+
+  Examples:
+    | target | numbers            |
+    | 834    | 10,9,8,7,6,5       |
+    | 954    | 50,75,25,100,5,8   |
+    | 999    | 1,2,3,4,5,6        |
+
+  Scenario Outline: Empty or truncated answer table file rejected
+    When I open an answer table file containing <size> bytes
+    Then the file is rejected as not an answer table
+
+  Examples:
+    | size |
+    | 0    |
+    | 8    |
+
+  Scenario: Answer table does not cover games with numbers outside the standard rules
+    Given an answer table of the numbers 1,1,2,2,3,3
+    Then the answer table covers target number 500 and numbers 1,1,2,2,3,3
+    And the answer table does not cover target number 500 and numbers 1,1,2,2,2,131
+
+  Scenario: Solutions are cached by target and source numbers, regardless of their order
+    Given a solution cache with capacity 2
+    When I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the cache
+    And I call the solver with target number 378 and numbers 1,2,3,4,7,50 using the cache
+    Then a solution is found whose value equals the target number and which uses 3 numbers
+    And the cache has 1 hit, 1 miss and 0 evictions
+
+  Scenario: Least recently used solution is evicted from a full cache
+    Given a solution cache with capacity 2
+    When I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the cache
+    And I call the solver with target number 999 and numbers 1,2,3,4,5,6 using the cache
+    And I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the cache
+    And I call the solver with target number 834 and numbers 10,9,8,7,6,5 using the cache
+    And I call the solver with target number 999 and numbers 6,5,4,3,2,1 using the cache
+    Then no solution is found
+    And the cache has 1 hit, 4 misses and 2 evictions
+
+  Scenario: Concurrent requests for the same game share one solve
+    Given a solution cache with capacity 2
+    When 4 requests for target number 378 and numbers 50,7,4,3,2,1 are made at the same time through the cache
+    Then the game is solved once, and every request gets the solution
+    And the cache has 0 hits, 1 miss and 0 evictions
+    And the cache has coalesced 3 requests
+
+  Scenario: Cancellation of a shared solve reaches every request
+    Given a solution cache with capacity 2
+    When 4 requests for target number 378 and numbers 1,2,3,4,7,50 are made at the same time through the cache, and the solve is cancelled
+    Then the game is solved once, and every request is cancelled
+    And the cache has coalesced 3 requests
+    When I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the cache
+    Then the cache has 0 hits, 2 misses and 0 evictions
+
+  Scenario: A shared solve is cancelled when every request for it is withdrawn
+    Given a solver executor with 1 concurrent solve, a queue of 0 and a deadline of 10000 ms
+    And a solution cache with capacity 2
+    When 3 requests for a game which takes a long time to solve are made through the cache without waiting
+    Then the cache has coalesced 2 requests
+    When 2 of the requests are withdrawn
+    Then the solve is still running
+    When 1 of the requests is withdrawn
+    Then the solve is cancelled, and the game is not cached
+
+  Scenario: Search through the executor completes within its deadline
+    Given a solver executor with 1 concurrent solve, a queue of 0 and a deadline of 10000 ms
+    When I call the solver through the executor with target number 378 and numbers 50,7,4,3,2,1
+    Then a solution is found whose value equals the target number and which uses 3 numbers
+
+  Scenario: Search through the executor is rejected when the executor is busy
+    Given a solver executor with 1 concurrent solve, a queue of 0 and a deadline of 10000 ms
+    And the executor is busy
+    When I call the solver through the executor with target number 378 and numbers 50,7,4,3,2,1
+    Then the search is rejected as busy
+
+  Scenario: Search through the executor is cancelled when its deadline passes
+    Given a solver executor with 1 concurrent solve, a queue of 0 and a deadline of 5 ms
+    When I call the solver through the executor with target number 999 and numbers 1,2,3,4,5,6
+    Then the search is cancelled
+
+  Scenario: Cancelled search keeps its place in the executor until it stops
+    Given a solver executor with 1 concurrent solve, a queue of 0 and a deadline of 10000 ms
+    When a search which does not stop as soon as it is cancelled is submitted to the executor and cancelled
+    Then the search is still running, and another search is rejected as busy
+    When the cancelled search stops
+    Then another search is run by the executor
+
+  Scenario: Search that cannot be cancelled ignores an attempt to cancel it
+    When I cancel a search that cannot be cancelled, and call the solver with target number 378 and numbers 50,7,4,3,2,1
+    Then a solution is found whose value equals the target number and which uses 3 numbers
+
+  Scenario Outline: Solve is recorded by the flight recorder
+    Given a flight recording of the solver events is running
+    When I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the <strategy> strategy
+    Then the solve is recorded as a flight recorder event using the <strategy> strategy
+    And the search is recorded as flight recorder events for phases <phases>
+
+  Examples:
+    | strategy  | phases                   |
+    | STREAM    | permute,enumerate,reduce |
+    | PRIMITIVE | branch                   |
+    | DEEPENING | depth,branch             |
+    | SUBSETS   | subsets,values,rank      |
+    | BACKWARD  | subsets,values,meet      |
+
+  Scenario Outline: Pruning decisions are sampled by the flight recorder with their rules
+    Given a flight recording of the solver events is running
+    When I call the solver with target number 952 and numbers 25,50,75,100,3,6 using the <strategy> strategy
+    Then pruning decisions are recorded as flight recorder events for rules commutative,associative,not-positive,indivisible
+    And the recorded pruning decisions by the rules on both operands match their operands
+
+  Examples:
+    | strategy  |
+    | STREAM    |
+    | PRIMITIVE |
+
+  Scenario Outline: Solve is recorded in the metrics
+    When I call the solver with target number 378 and numbers 50,7,4,3,2,1 using the <strategy> strategy
+    Then a solution is found whose value equals the target number and which uses 3 numbers
+    And the solve is recorded in the metrics
+
+  Examples:
+    | strategy  |
+    | STREAM    |
+    | PRIMITIVE |
+    | DEEPENING |
+    | SUBSETS   |
+    | BACKWARD  |
+
+  Scenario Outline: Equivalent combinations are pruned without changing the solution
+    When I call the solver with target number <target> and numbers <numbers> using the <strategy> strategy
+    Then the solution is "<solution>"
+    And combinations are pruned by the commutative and associative rules
+
+  Examples:
+    | target | numbers              | strategy  | solution                          |
+    | 378    | 50,7,4,3,2,1         | STREAM    | (50 + 4) * 7                      |
+    | 834    | 10,9,8,7,6,5         | PRIMITIVE | (10 + 5) * 8 * 7 - 6              |
+    | 952    | 25,50,75,100,3,6     | PRIMITIVE | 25 + 75 * (100 + 3) * 6 / 50      |
+    | 952    | 25,50,75,100,3,6     | DEEPENING | 25 + 75 * (100 + 3) * 6 / 50      |
+
+  Scenario Outline: Solutions for all targets found in one pass
+    When I solve all targets for numbers <numbers>
+    Then the table has solutions for targets 100 to 999
+    And the solutions for targets 100,101,378,493,834,954,999 are as good as those found by the DEEPENING strategy
+
+  Examples:
+    | numbers          |
+    | 50,7,4,3,2,1     |
+    | 50,25,4,3,2,4    |
+    | 50,75,25,100,5,8 |
+    | 1,2,3,4,5,6      |
+
+  Scenario Outline: Permutations are each visited once however they are split
+    When the permutations and work items of the numbers <numbers> are split as far as possible
+    Then every permutation and work item is visited exactly once, in depth-first order
+
+  Examples:
+    | numbers            |
+    | 7,7                |
+    | 7,8                |
+    | 10,9,8,7,6,5       |
+    | 2,2,3,3,5,5        |
+    | 50,25,4,3,2,4      |
+    | 1,2,3,4,5,6,7      |
+
+  @vector
+  Scenario: Vector combination kernel gives the same results as the scalar kernel
+    Given the Vector API is available
+    When 10000 runs of random operands are combined by the vector and scalar kernels
+    Then the kernels give the same results
+
+  @vector
+  Scenario Outline: Subset search finds the same solutions with the vector and scalar kernels
+    Given the Vector API is available
+    When I call the solver with target number <target> and numbers <numbers>
+    Then the subset search finds the same solutions with the vector and scalar kernels
+
+  Examples:
+    | target | numbers            |
+    | 834    | 10,9,8,7,6,5       |
+    | 493    | 50,25,4,3,2,4      |
+    | 952    | 25,50,75,100,3,6   |
+    | 954    | 50,75,25,100,5,8   |
+    | 999    | 1,2,3,4,5,6        |
+
+  Scenario Outline: Search sharded across worker processes finds the same solution as in one process
+    Given 2 shard worker processes are running
+    When I call the solver with target number <target> and numbers <numbers> using the <strategy> strategy sharded across the workers
+    Then the <strategy> strategy finds the same solution
+
+  Examples:
+    | target | numbers            | strategy  |
+    | 834    | 10,9,8,7,6,5       | DEEPENING |
+    | 493    | 50,25,4,3,2,4      | DEEPENING |
+    | 999    | 1,2,3,4,5,6        | DEEPENING |
+    | 378    | 50,7,4,3,2,1       | PRIMITIVE |
+
+  Scenario: Sharded search completes when a worker process has stopped
+    Given 3 shard worker processes are running
+    And a shard coordinator is connected to the shard workers
+    When shard worker process 2 is stopped
+    And I call the solver with target number 952 and numbers 25,50,75,100,3,6 using the DEEPENING strategy sharded across the workers
+    Then the DEEPENING strategy finds the same solution
+
+  Scenario: Shard is searched by another worker when a worker fails while searching it
+    Given a shard worker which fails on its first request is running
+    And 1 shard worker process is running
+    When I call the solver with target number 834 and numbers 10,9,8,7,6,5 using the DEEPENING strategy sharded across the workers
+    Then the DEEPENING strategy finds the same solution
+    And the shard that the failing worker was sent was searched by another worker
+
+  Scenario: Shard is not sent again to a worker which timed out on it
+    Given a shard worker which never replies is running
+    And 1 shard worker process is running
+    When I call the solver with target number 834 and numbers 10,9,8,7,6,5 using the DEEPENING strategy sharded across the workers with a timeout of 5 seconds
+    Then the DEEPENING strategy finds the same solution
+    And no shard was sent again to the worker which did not reply
+
+  Scenario: Sharded search fails when the only worker times out on a shard
+    Given a shard worker which never replies is running
+    When I call the solver with target number 999 and numbers 2,2,2,2,2,2 using the PRIMITIVE strategy sharded across the workers with a timeout of 1 second
+    Then the sharded search fails with a message containing "None of the remaining shard workers can search shard", after 1 request to the worker
+
+  Scenario: Sharded search fails when a shard has been sent to workers the maximum number of times
+    Given a shard worker which closes the connection on every request is running
+    When I call the solver with target number 999 and numbers 2,2,2,2,2,2 using the PRIMITIVE strategy sharded across the workers with a timeout of 30 seconds
+    Then the sharded search fails with a message containing "failed on 3 attempts", after 3 requests to the worker
+
+  Scenario: Shard worker cancels its search when the connection is closed
+    Given a shard worker is running in this process
+    When a shard of target number 999 and numbers 25,50,75,100,3,6,7,8,9,10 is sent to the worker, and the connection is closed before the reply
+    Then the worker cancels the search of the shard
+
+  Scenario Outline: Lightweight server serves the same home page as the application
+    Given the lightweight server is running
+    When I request "<path>" from the lightweight server
+    Then the response has status <status> and shows the messages "<messages>"
+
+  Examples:
+    | path                                                  | status | messages                                                       |
+    | /?num0=378&num1=50&num2=7&num3=4&num4=3&num5=2&num6=1 | 200    | Target: 378, numbers: 50, 7, 4, 3, 2, 1; (50 + 4) * 7 = 378    |
+    | /?num0=999&num1=1&num2=2&num3=3&num4=4&num5=5&num6=6  | 200    | Target: 999, numbers: 1, 2, 3, 4, 5, 6; No solution found      |
+    | /?num0=1000&num1=1                                    | 200    | Target number must be in the range 100 to 999 inclusive        |
+    | /                                                     | 200    |                                                                |
+    | /other                                                | 404    |                                                                |
+
+  Scenario: Lightweight server rejects a parameter that is not validly URL-encoded
+    Given the lightweight server is running
+    When I post the form "num0=%zz&num1=1" to the lightweight server
+    Then the response has status 400 and shows the messages ""
+
+  Scenario: Lightweight server's page does not send the source numbers as they are entered
+    Given the lightweight server is running
+    When I request "/" from the lightweight server
+    Then the page does not send the source numbers to the server as they are entered
+
+  Scenario Outline: Batch of games solved
+    When I solve the following games in <order> order
+      """
+      378 50 7 4 3 2 1
+      999 1 2 3 4 5 6
+
+      834, 10, 9, 8, 7, 6, 5
+      1000 1 2 3
+      """
+    Then the results are:
+      | value | error                                                     |
+      | 378   |                                                           |
+      |       |                                                           |
+      | 834   |                                                           |
+      |       | Target number must be in the range 100 to 999 inclusive  |
+
+  Examples:
+    | order      |
+    | INPUT      |
+    | COMPLETION |
+
+  Scenario: Batch games solved through the solver executor are subject to its deadline
+    When I solve the following games in INPUT order through a solver executor with a deadline of 1 ms
+      """
+      999 1 2 3 4 5 6
+      1000 1 2 3
+      """
+    Then the results are:
+      | value | error                                                     |
+      |       | Search did not complete within PT0.001S                   |
+      |       | Target number must be in the range 100 to 999 inclusive  |
+
+  Scenario: Batch results written in input order
+    When I solve the following games in INPUT order
+      """
+      999 1 2 3 4 5 6
+      378 50 7 4 3 2 1
+      954 50 75 25 100 5 8
+      101 1 2 3 4 5 6
+      """
+    Then the results are in input order
+
+  Scenario Outline: Search with a time budget completes within the budget
+    When I call the solver with target number <target> and numbers <numbers> using the <strategy> strategy and a time budget of 10000 ms
+    Then the search completes
+    And the STREAM strategy finds the same solution
+
+  Examples:
+    | target | numbers            | strategy  |
+    | 378    | 50,7,4,3,2,1       | PRIMITIVE |
+    | 378    | 50,7,4,3,2,1       | DEEPENING |
+    | 999    | 1,2,3,4,5,6        | DEEPENING |
+
+  Scenario: Search with a time budget returns the best solution found when the budget runs out
+    When I call the solver with target number 834 and numbers 10,9,8,7,6,5 using the STREAM strategy and a time budget of 100 ms
+    Then the search does not complete
+    And any solution found is valid
+
+  Scenario Outline: Search with a memory budget finds the same solution within the budget
+    When I call the solver with target number <target> and numbers <numbers> and a memory budget of 1000000 bytes
+    Then the game is solved using the <strategy> strategy within the memory budget
+    And the <strategy> strategy finds the same solution
+
+  Examples:
+    | target | numbers                 | strategy  |
+    | 834    | 10,9,8,7,6,5            | DEEPENING |
+    | 999    | 1,2,3,4,5,6             | DEEPENING |
+    | 952    | 100,75,50,25,6,3,8,2    | BACKWARD  |
+
+  Scenario: Search with a memory budget too small for BACKWARD falls back to DEEPENING
+    When I call the solver with target number 952 and numbers 100,75,50,25,6,3,8,2 and a memory budget of 40000 bytes
+    Then the game is solved using the DEEPENING strategy within the memory budget
+    And the DEEPENING strategy finds the same solution
+
+  Scenario: Search with a memory budget too small for any strategy fails
+    When I call the solver with target number 834 and numbers 10,9,8,7,6,5 and a memory budget of 10000 bytes
+    Then the search fails because it exceeds the memory budget
+
+  Scenario Outline: Incremental solver finds the same solution as SUBSETS
+    Given an incremental solver with a memory budget of 16000000 bytes
+    When I enter the numbers <numbers> one at a time
+    And I solve target number <target> with the incremental solver
+    Then the SUBSETS strategy finds the same solution
+    And entering the last number generates fewer expressions than calculating all the values
+
+  Examples:
+    | target | numbers            |
+    | 834    | 10,9,8,7,6,5       |
+    | 999    | 1,2,3,4,5,6        |
+    | 954    | 50,75,25,100,5,8   |
+    | 101    | 100,75,50,25,10,10 |
+
+  Scenario: Incremental solver recalculates the values when an earlier number is changed
+    Given an incremental solver with a memory budget of 16000000 bytes
+    When I enter the numbers 10,9,8,7 one at a time
+    And I enter the numbers 10,9,6,5,4 one at a time
+    And I solve target number 834 with the incremental solver
+    Then the SUBSETS strategy finds the same solution
+
+  Scenario: Incremental solver discards its values when it exceeds its memory budget
+    Given an incremental solver with a memory budget of 100000 bytes
+    When I enter the numbers 10,9,8,7,6,5 one at a time
+    Then the incremental solver exceeds its memory budget and discards its values
+
+  Scenario: Incremental solver stops calculating and discards its values when cancelled
+    Given an incremental solver with a memory budget of 16000000 bytes
+    When I enter the numbers 10,9,8 one at a time
+    And I enter the numbers 10,9,8,7,6,5 after the request has been cancelled
+    Then the incremental solver is cancelled and discards its values
+    When I enter the numbers 10,9,8,7,6,5 one at a time
+    And I solve target number 834 with the incremental solver
+    Then the SUBSETS strategy finds the same solution
+
+  Scenario: Least recently used incremental solver discarded when there are too many sessions
+    Given incremental solvers for at most 2 sessions with an idle timeout of 60000 ms
+    When the sessions "a,b,a,c" use their incremental solvers
+    Then the sessions "a,c" have incremental solvers
+    And the session "b" has no incremental solver
+    And 1 incremental solvers have been evicted and 0 have expired
+
+  Scenario: Idle incremental solvers discarded
+    Given incremental solvers for at most 10 sessions with an idle timeout of 100 ms
+    When the sessions "a,b" use their incremental solvers
+    And 200 ms pass
+    Then the session "a" has no incremental solver
+    And the session "b" has no incremental solver
+    And 0 incremental solvers have been evicted and 2 have expired
+
+  Scenario: Storage retained by the incremental solvers read while one is being updated
+    Given incremental solvers for at most 10 sessions with an idle timeout of 60000 ms
+    When session "a" enters the numbers 25,50,75,100,3,6
+    Then the storage retained by the incremental solvers can be read while session "a" is updating its solver
+
+  Scenario Outline: Larger games solved under configurable rules
+    Given rules with targets from 100 to 9999, 10 source numbers, small numbers 1,1,2,2,3,3,4,4,5,5,6,6,7,7,8,8,9,9,10,10 and large numbers 25,50,75,100
+    When I call the solver with target number <target> and numbers <numbers> under the rules
+    Then a solution is found whose value equals the target number and which uses <count> numbers
+
+  Examples:
+    | target | numbers                        | count |
+    | 9876   | 100,75,50,25,10,9,8,7          | 6     |
+    | 4321   | 100,75,3,3,7,8,9,1,2,5         | 5     |
+
+  Scenario Outline: Games validated under configurable rules
+    Given rules with targets from 10 to 99, 4 source numbers, small numbers 1,2,2,3,3,3 and large numbers 12,15
+    When I create a game with arguments "<arguments>" under the rules
+    Then the game is rejected with the message "<message>"
+
+  Examples:
+    | arguments    | message                                                   |
+    | 100 1 2      | Target number must be in the range 10 to 99 inclusive     |
+    | 50 1 2 3 4   | Invalid source number 4: must be in the range 1 to 3 inclusive, or 12 or 15 |
+    | 50 1 1 2     | Small source number 1 cannot appear more than once        |
+    | 50 3 3 3 3   | Small source number 3 cannot appear more than 3 times     |
+    | 50 12 12     | Large source number 12 cannot appear more than once       |
+    | 50 1 2 3 12 15 | No more than 4 source numbers can be specified          |
+    | 3            | Number of large numbers must be in the range 0 to 2 inclusive |
+
+  Scenario: Random game selected under configurable rules
+    Given rules with targets from 10 to 99, 4 source numbers, small numbers 1,2,2,3,3,3 and large numbers 12,15
+    When I create a game with arguments "2" under the rules
+    Then the game has a target number from 10 to 99 and 4 source numbers
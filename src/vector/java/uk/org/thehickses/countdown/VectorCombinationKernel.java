@@ -0,0 +1,122 @@
+package uk.org.thehickses.countdown;
+
+import java.util.stream.IntStream;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The implementation of {@link CombinationKernel} which uses the Vector API, combining as many
+ * pairs of operands at once as there are double lanes in the widest vectors the CPU supports (4
+ * with AVX2, 8 with AVX-512). The pruning rules are applied as vector masks, and each mask is
+ * converted to the bits of the result.
+ *
+ * CPUs have no SIMD integer division, and the Vector API emulates it one lane at a time, so the
+ * rules are rewritten to avoid it: the multiplication rule compares the right operands with a
+ * limit calculated once from the left operand, and the division is done in double lanes, which
+ * is why the int vectors have as many lanes as the double vectors rather than as many as will
+ * fit. The quotient is exact whenever the division is, and the rules check that it is.
+ *
+ * This class may only be loaded if the jdk.incubator.vector module is available.
+ */
+class VectorCombinationKernel implements CombinationKernel
+{
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED
+            .withShape(VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+    private static final int ADD = Solver.Operator.ADD.ordinal();
+    private static final int SUBTRACT = Solver.Operator.SUBTRACT.ordinal();
+    private static final int MULTIPLY = Solver.Operator.MULTIPLY.ordinal();
+    private static final int DIVIDE = Solver.Operator.DIVIDE.ordinal();
+
+    // The bits for each lane, for addition, subtraction and multiplication in turn. There are at
+    // most 8 lanes (as there are at most 8 doubles in a vector), so the bits for all three fit in
+    // an int.
+    private static final IntVector[] LANE_BITS = IntStream.range(0, 3)
+            .mapToObj(op -> IntVector.fromArray(INTS, IntStream.range(0, INTS.length())
+                    .map(i -> 1 << (op * 8 + i))
+                    .toArray(), 0))
+            .toArray(IntVector[]::new);
+    private static final IntVector NO_BITS = IntVector.zero(INTS);
+    // The bits for each lane, for division.
+    private static final DoubleVector DOUBLE_LANE_BITS = DoubleVector.fromArray(DOUBLES,
+            IntStream.range(0, DOUBLES.length())
+                    .mapToDouble(i -> 1 << i)
+                    .toArray(),
+            0);
+    private static final DoubleVector NO_DOUBLE_BITS = DoubleVector.zero(DOUBLES);
+    private static final double ROUNDER = 0x1p52;
+
+    @Override
+    public void combine(int a, int[] b, int from, int count, int[][] results, long[] valid)
+    {
+        var left = IntVector.broadcast(INTS, a);
+        var leftDouble = DoubleVector.broadcast(DOUBLES, a);
+        var max = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+        var multiplyLimit = IntVector.broadcast(INTS, Integer.MAX_VALUE / a);
+        long add = 0, subtract = 0, multiply = 0, divide = 0;
+        var vectorCount = INTS.loopBound(count);
+        for (int j = 0; j < vectorCount; j += INTS.length())
+        {
+            var right = IntVector.fromArray(INTS, b, from + j);
+            var notOne = right.compare(VectorOperators.NE, 1);
+            left.add(right)
+                    .intoArray(results[ADD], j);
+            left.sub(right)
+                    .intoArray(results[SUBTRACT], j);
+            left.mul(right)
+                    .intoArray(results[MULTIPLY], j);
+
+            // a <= Integer.MAX_VALUE - b
+            var bits = NO_BITS.blend(LANE_BITS[ADD],
+                    left.compare(VectorOperators.LE, max.sub(right)));
+
+            // a > b && a != b * 2; where b * 2 overflows, it is negative, so cannot equal a
+            bits = bits.or(NO_BITS.blend(LANE_BITS[SUBTRACT],
+                    left.compare(VectorOperators.GT, right)
+                            .and(left.compare(VectorOperators.NE, right.add(right)))));
+
+            // b != 1 && a * b <= Integer.MAX_VALUE, which is b <= Integer.MAX_VALUE / a
+            bits = bits.or(NO_BITS.blend(LANE_BITS[MULTIPLY],
+                    notOne.and(right.compare(VectorOperators.LE, multiplyLimit))));
+
+            // b != 1 && a % b == 0 && a != b * b. The quotient is rounded to an integer by adding
+            // and subtracting 2^52, beyond which doubles have no fractional part; if b divides a,
+            // the division is exact, and otherwise the rounded quotient times b is not a. The
+            // mask is converted to bits in double lanes, as converting it to an int mask is not
+            // compiled to vector instructions in Java 17; adding the bits is exact.
+            var rightDouble = (DoubleVector) right.convertShape(VectorOperators.I2D, DOUBLES, 0);
+            var quotient = leftDouble.div(rightDouble)
+                    .add(ROUNDER)
+                    .sub(ROUNDER);
+            var divideBits = (long) NO_DOUBLE_BITS.blend(DOUBLE_LANE_BITS,
+                    rightDouble.compare(VectorOperators.NE, 1)
+                            .and(quotient.mul(rightDouble)
+                                    .compare(VectorOperators.EQ, leftDouble))
+                            .and(quotient.compare(VectorOperators.NE, rightDouble)))
+                    .reduceLanes(VectorOperators.ADD);
+
+            var allBits = bits.reduceLanes(VectorOperators.OR);
+            add |= (long) (allBits & 0xFF) << j;
+            subtract |= (long) (allBits >>> 8 & 0xFF) << j;
+            multiply |= (long) (allBits >>> 16 & 0xFF) << j;
+            divide |= divideBits << j;
+        }
+        valid[ADD] = add;
+        valid[SUBTRACT] = subtract;
+        valid[MULTIPLY] = multiply;
+        valid[DIVIDE] = divide;
+        // Few divisions are valid, so their quotients are calculated one at a time.
+        for (var remaining = divide; remaining != 0; remaining &= remaining - 1)
+        {
+            var j = Long.numberOfTrailingZeros(remaining);
+            results[DIVIDE][j] = a / b[from + j];
+        }
+        // The operands left over, too few to fill a vector, are combined one at a time.
+        for (int j = vectorCount; j < count; j++)
+            ScalarKernel.combine(a, b[from + j], j, results, valid);
+    }
+}